@@ -0,0 +1,61 @@
+package com.ashlikun.photo_hander.compress;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/11 10:40
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：压缩等级计算的吞吐量
+ * 每次调用计算整个图片集，结果 ops/s 乘以图片数量就是每秒计算的图片数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GearPlannerBenchmark {
+    /**
+     * 压缩等级，和 Luban 的常量一致
+     */
+    @Param({"1", "2", "3"})
+    public int gear;
+
+    @Param({"1000"})
+    public int randomCount;
+
+    private SyntheticCorpus.Sample[] samples;
+
+    @Setup
+    public void setup() {
+        List<SyntheticCorpus.Sample> list = SyntheticCorpus.create(randomCount);
+        samples = list.toArray(new SyntheticCorpus.Sample[list.size()]);
+    }
+
+    @Benchmark
+    public void plan(Blackhole blackhole) {
+        for (SyntheticCorpus.Sample sample : samples) {
+            blackhole.consume(GearPlannerReport.plan(gear, sample));
+        }
+    }
+
+    /**
+     * 只计算典型图片，单张图片的开销
+     */
+    @Benchmark
+    public void planTypical(Blackhole blackhole) {
+        for (int i = 0; i < SyntheticCorpus.TYPICAL_NAMES.length; i++) {
+            blackhole.consume(GearPlannerReport.plan(gear, samples[i]));
+        }
+    }
+}
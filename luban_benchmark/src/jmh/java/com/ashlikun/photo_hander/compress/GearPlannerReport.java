@@ -0,0 +1,79 @@
+package com.ashlikun.photo_hander.compress;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/11 11:05
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：打印合成图片集在各个压缩等级下的计算结果
+ * 典型图片逐个打印目标宽高和大小，整个图片集打印目标大小(kb)和缩放比例的分布
+ * 修改压缩等级的常量之后对比前后的输出
+ */
+public class GearPlannerReport {
+    private static final int RANDOM_COUNT = 10000;
+    private static final int[] GEARS = {3, 2, 1};
+    private static final String[] GEAR_NAMES = {"THIRD_GEAR", "DOUBLE_GEAR", "FIRST_GEAR"};
+
+    public static void main(String[] args) {
+        List<SyntheticCorpus.Sample> samples = SyntheticCorpus.create(RANDOM_COUNT);
+        for (int g = 0; g < GEARS.length; g++) {
+            int gear = GEARS[g];
+            System.out.println("==== " + GEAR_NAMES[g] + " ====");
+            for (SyntheticCorpus.Sample sample : SyntheticCorpus.typical()) {
+                System.out.println(String.format("%-22s %5dx%-5d %6dkb -> %s", sample.name,
+                        sample.width, sample.height, sample.length / 1024, plan(gear, sample)));
+            }
+            List<Long> sizes = new ArrayList<>();
+            List<Long> scales = new ArrayList<>();
+            int original = 0;
+            for (SyntheticCorpus.Sample sample : samples) {
+                GearPlanner.Target target = plan(gear, sample);
+                if (target.isOriginal()) {
+                    original++;
+                    continue;
+                }
+                sizes.add(target.size);
+                //压缩后长边占原图长边的百分比
+                scales.add(100L * Math.max(target.width, target.height) / Math.max(sample.width, sample.height));
+            }
+            System.out.println("images: " + samples.size() + ", keep original: " + original);
+            System.out.println("target kb  " + distribution(sizes));
+            System.out.println("long side% " + distribution(scales));
+            System.out.println();
+        }
+    }
+
+    static GearPlanner.Target plan(int gear, SyntheticCorpus.Sample sample) {
+        switch (gear) {
+            case 1:
+                return GearPlanner.first(sample.width, sample.height, sample.length);
+            case 2:
+                return GearPlanner.second(sample.width, sample.height, sample.length);
+            default:
+                return GearPlanner.third(sample.width, sample.height, sample.length);
+        }
+    }
+
+    private static String distribution(List<Long> values) {
+        if (values.isEmpty()) {
+            return "-";
+        }
+        Collections.sort(values);
+        long sum = 0;
+        for (long v : values) {
+            sum += v;
+        }
+        return String.format("min=%d p10=%d p50=%d p90=%d p99=%d max=%d mean=%d",
+                values.get(0), percentile(values, 10), percentile(values, 50), percentile(values, 90),
+                percentile(values, 99), values.get(values.size() - 1), sum / values.size());
+    }
+
+    private static long percentile(List<Long> sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+    }
+}
@@ -0,0 +1,94 @@
+package com.ashlikun.photo_hander.compress;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/11 10:10
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：合成的图片集，只有宽高和文件大小
+ * 固定的典型图片 + 固定种子随机生成的各种比例，每次运行结果一致
+ */
+class SyntheticCorpus {
+    /**
+     * 典型图片，宽，高，文件大小(字节)
+     */
+    static final long[][] TYPICAL = {
+            //截屏 720P
+            {720, 1280, 390 * 1024},
+            //截屏 1080P
+            {1080, 1920, 2263 * 1024},
+            //拍照 13M(4:3)
+            {3096, 4128, 3195 * 1024},
+            //拍照 9.6M(16:9)
+            {4128, 2322, 4751 * 1024},
+            //全景 16:9 以上
+            {8192, 2048, 6 * 1024 * 1024},
+            //滚动截屏
+            {1080, 6433, 1597 * 1024},
+    };
+
+    static final String[] TYPICAL_NAMES = {
+            "screenshot 720p", "screenshot 1080p", "photo 13M 4:3", "photo 9.6M 16:9",
+            "panorama", "scrolling 1080x6433"
+    };
+
+    private static final long SEED = 20190411L;
+
+    /**
+     * 一张图片
+     */
+    static final class Sample {
+        final String name;
+        final int width;
+        final int height;
+        final long length;
+
+        Sample(String name, int width, int height, long length) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+            this.length = length;
+        }
+    }
+
+    private SyntheticCorpus() {
+    }
+
+    /**
+     * 典型图片
+     */
+    static List<Sample> typical() {
+        List<Sample> samples = new ArrayList<>();
+        for (int i = 0; i < TYPICAL.length; i++) {
+            samples.add(new Sample(TYPICAL_NAMES[i], (int) TYPICAL[i][0], (int) TYPICAL[i][1], TYPICAL[i][2]));
+        }
+        return samples;
+    }
+
+    /**
+     * 典型图片 + 随机比例的图片
+     * 长边 480-12000，短长比 0.05-1，每像素 0.3-2.5 字节
+     *
+     * @param randomCount 随机图片数量
+     */
+    static List<Sample> create(int randomCount) {
+        List<Sample> samples = typical();
+        Random random = new Random(SEED);
+        for (int i = 0; i < randomCount; i++) {
+            int longSide = 480 + random.nextInt(12000 - 480);
+            double ratio = 0.05 + random.nextDouble() * 0.95;
+            int shortSide = Math.max(1, (int) (longSide * ratio));
+            long length = (long) ((long) longSide * shortSide * (0.3 + random.nextDouble() * 2.2));
+            if (random.nextBoolean()) {
+                samples.add(new Sample("random", shortSide, longSide, length));
+            } else {
+                samples.add(new Sample("random", longSide, shortSide, length));
+            }
+        }
+        return samples;
+    }
+}
@@ -159,6 +159,57 @@ public class PhotoHander {
         return this;
     }
 
+    /**
+     * 按照相似度压缩，不限制大小，和原图的相似度(SSIM)不低于阈值
+     *
+     * @param similarity 0-1，越大越清晰，默认 {@link Luban#DEFAULT_SIMILARITY}
+     * @return
+     */
+    public PhotoHander compressRankQuality(float similarity) {
+        optionData.compressRank = Luban.QUALITY_GEAR;
+        optionData.compressSimilarity = similarity;
+        return this;
+    }
+
+    /**
+     * 按照内容选择压缩方式，截图、文档保留能看清文字的尺寸和质量，照片按照压缩等级
+     *
+     * @return
+     */
+    public PhotoHander compressContentAware(boolean contentAware) {
+        optionData.compressContentAware = contentAware;
+        return this;
+    }
+
+    /**
+     * 压缩输出格式，默认JPEG
+     * {@link Luban#FORMAT_JPEG}
+     * {@link Luban#FORMAT_WEBP}
+     * {@link Luban#FORMAT_WEBP_LOSSLESS}
+     * {@link Luban#FORMAT_AUTO}
+     *
+     * @return
+     */
+    public PhotoHander compressFormat(int format) {
+        optionData.compressFormat = format;
+        return this;
+    }
+
+    /**
+     * 压缩时EXIF的处理，默认全部去掉
+     * {@link Luban#EXIF_STRIP_ALL}
+     * {@link Luban#EXIF_KEEP_WHITELIST}
+     * {@link Luban#EXIF_KEEP_ORIENTATION}
+     *
+     * @param tags {@link Luban#EXIF_KEEP_WHITELIST} 保留的标签，例如 ExifInterface.TAG_DATETIME，不传使用默认的时间、设备、GPS
+     * @return
+     */
+    public PhotoHander exifPolicy(int policy, String... tags) {
+        optionData.exifPolicy = policy;
+        optionData.exifTags = tags == null || tags.length == 0 ? null : tags;
+        return this;
+    }
+
     /**
      * 裁剪
      *
@@ -2,6 +2,7 @@ package com.ashlikun.photo_hander;
 
 import android.Manifest;
 import android.app.ProgressDialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.drawable.Drawable;
@@ -23,6 +24,7 @@ import android.widget.Toast;
 
 import com.ashlikun.photo_hander.bean.Image;
 import com.ashlikun.photo_hander.bean.ImageSelectData;
+import com.ashlikun.photo_hander.compress.CompressJob;
 import com.ashlikun.photo_hander.compress.Luban;
 import com.ashlikun.photo_hander.compress.OnCompressListener;
 import com.ashlikun.photo_hander.crop.Crop;
@@ -61,6 +63,10 @@ public class PhotoHanderActivity extends AppCompatActivity
      */
     private TextView mSubmitButton;
     ProgressDialog compressDialog;
+    /**
+     * 正在进行的压缩，页面销毁的时候取消
+     */
+    CompressJob compressJob;
     /**
      * 配置参数
      */
@@ -281,8 +287,15 @@ public class PhotoHanderActivity extends AppCompatActivity
         if (optionData.isCompress) {
             //压缩
             ArrayList<String> resultStrList = ImageSelectData.getOriginPaths(resultList);
-            Luban.get(this).load(resultStrList)
+            if (compressJob != null) {
+                compressJob.cancel();
+            }
+            compressJob = Luban.get(this).load(resultStrList)
                     .putGear(optionData.compressRank)
+                    .putSimilarity(optionData.compressSimilarity)
+                    .putContentAware(optionData.compressContentAware)
+                    .putFormat(optionData.compressFormat)
+                    .putExifPolicy(optionData.exifPolicy, optionData.exifTags)
                     .setCompressListener(new OnCompressListener() {
                         @Override
                         public void onStart() {
@@ -292,6 +305,15 @@ public class PhotoHanderActivity extends AppCompatActivity
                                 compressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
                                 compressDialog.setCanceledOnTouchOutside(false);
                                 compressDialog.setMax(100);
+                                compressDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+                                    @Override
+                                    public void onCancel(DialogInterface dialog) {
+                                        //返回键取消对话框，同时取消压缩
+                                        if (compressJob != null) {
+                                            compressJob.cancel();
+                                        }
+                                    }
+                                });
                             }
                             compressDialog.show();
                         }
@@ -349,6 +371,9 @@ public class PhotoHanderActivity extends AppCompatActivity
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (compressJob != null) {
+            compressJob.cancel();
+        }
         if (compressDialog != null) {
             compressDialog.dismiss();
         }
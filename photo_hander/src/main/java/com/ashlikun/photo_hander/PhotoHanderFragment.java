@@ -4,23 +4,17 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Configuration;
-import android.database.Cursor;
 import android.graphics.Color;
 import android.graphics.Point;
 import android.graphics.drawable.ColorDrawable;
 import android.os.Bundle;
 import android.os.Handler;
-import android.provider.MediaStore;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
-import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
-import android.support.v4.content.Loader;
 import android.support.v7.widget.GridLayoutManager;
 import android.support.v7.widget.ListPopupWindow;
 import android.support.v7.widget.RecyclerView;
-import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -31,14 +25,27 @@ import android.widget.Toast;
 import com.ashlikun.photo_hander.adapter.FolderAdapter;
 import com.ashlikun.photo_hander.adapter.ImageGridAdapter;
 import com.ashlikun.photo_hander.bean.Folder;
+import com.ashlikun.photo_hander.bean.GallerySnapshot;
 import com.ashlikun.photo_hander.bean.Image;
 import com.ashlikun.photo_hander.bean.ImageSelectData;
+import com.ashlikun.photo_hander.utils.GalleryIndexer;
+import com.ashlikun.photo_hander.utils.GalleryReconciler;
+import com.ashlikun.photo_hander.utils.MediaStorePager;
 import com.ashlikun.photo_hander.utils.PhotoHanderPermission;
 import com.ashlikun.photo_hander.utils.PhotoHanderUtils;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.schedulers.Schedulers;
 
 /**
  * @author　　: 李坤
@@ -50,8 +57,10 @@ import java.util.List;
 public class PhotoHanderFragment extends Fragment {
 
     private static final String KEY_TEMP_FILE = "key_temp_file";
-    private static final int LOADER_ALL = 0;
-    private static final int LOADER_CATEGORY = 1;
+    /**
+     * 图片列表的列数
+     */
+    private static final int GRID_COLUMN = 4;
 
     /**
      * 已选的数据
@@ -63,9 +72,18 @@ public class PhotoHanderFragment extends Fragment {
      */
     PhotoOptionData optionData;
     /**
-     * 可选目录的列表数据
+     * 最新的相册索引快照
      */
-    private ArrayList<Folder> mResultFolder = new ArrayList<>();
+    private GallerySnapshot gallerySnapshot;
+    /**
+     * 当前显示的是全部图片，不是某个目录
+     */
+    private boolean showingAll = true;
+    /**
+     * 当前显示的目录和已经显示的数量，后面的快照有新的图片就追加
+     */
+    private long shownBucketId;
+    private int shownFolderCount;
 
     private RecyclerView recyclerView;
     private Callback mCallback;
@@ -79,9 +97,23 @@ public class PhotoHanderFragment extends Fragment {
     private TextView yulanTv;
     private View mPopupAnchorView;
 
-    private boolean hasFolderGened = false;
-
     private File mTmpFile;
+    /**
+     * 正在进行的分页加载
+     */
+    private Disposable loadDisposable;
+    /**
+     * 延迟检查文件是否存在
+     */
+    private GalleryReconciler reconciler;
+    /**
+     * 已经确认不存在的路径，索引的快照和保存的索引都去掉
+     */
+    private final Set<String> deadPaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /**
+     * 读取完之后去掉不存在的路径，重新生成快照
+     */
+    private Disposable pruneDisposable;
 
     @Override
     public void onAttach(Context context) {
@@ -114,7 +146,7 @@ public class PhotoHanderFragment extends Fragment {
         ArrayList<ImageSelectData> resultListM = getArguments().getParcelableArrayList(IntentKey.EXTRA_DEFAULT_SELECTED_LIST);
 
         resultList = ImageSelectData.getOriginPaths(resultListM);
-        mImageAdapter = new ImageGridAdapter(getActivity(), optionData.isShowCamera, 4);
+        mImageAdapter = new ImageGridAdapter(getActivity(), optionData.isShowCamera, GRID_COLUMN);
         mImageAdapter.showSelectIndicator(optionData.isModeMulti());
         mImageAdapter.setAddList(getArguments().getStringArrayList(IntentKey.EXTRA_DEFAULT_ADD_IMAGES));
         mPopupAnchorView = view.findViewById(R.id.footer);
@@ -142,7 +174,7 @@ public class PhotoHanderFragment extends Fragment {
         });
 
         recyclerView = (RecyclerView) view.findViewById(R.id.recycleView);
-        recyclerView.setLayoutManager(new GridLayoutManager(getContext(), 4));
+        recyclerView.setLayoutManager(new GridLayoutManager(getContext(), GRID_COLUMN));
         recyclerView.addItemDecoration(new NeibuItemDecoration.Builder(getContext(), NeibuItemDecoration.HORIZONTAL)
                 .setColorRes(R.color.ph_space_color)
                 .setSizeRes(R.dimen.ph_space_size)
@@ -152,6 +184,18 @@ public class PhotoHanderFragment extends Fragment {
                 .setSizeRes(R.dimen.ph_space_size)
                 .create());
         recyclerView.setAdapter(mImageAdapter);
+        reconciler = new GalleryReconciler(new Consumer<Set<String>>() {
+            @Override
+            public void accept(Set<String> paths) throws Exception {
+                removeInvalid(paths);
+            }
+        });
+        mImageAdapter.setOnLoadFailedListener(new ImageGridAdapter.OnLoadFailedListener() {
+            @Override
+            public void onLoadFailed(Image data) {
+                reconciler.check(data.path);
+            }
+        });
         mImageAdapter.setOnItemClickListener(new ImageGridAdapter.OnItemClickListener() {
             /**
              * check点击回掉
@@ -190,6 +234,9 @@ public class PhotoHanderFragment extends Fragment {
                         mCallback.onLookPhoto(mImageAdapter.getImages(), mImageAdapter.getSelectedImages(), position, data);
                     }
                 } else {
+                    if (!checkExists(data)) {
+                        return;
+                    }
                     if (mCallback != null) {
                         mCallback.onSingleImageSelected(data.path);
                     }
@@ -260,7 +307,13 @@ public class PhotoHanderFragment extends Fragment {
                         mFolderPopupWindow.dismiss();
 
                         if (index == 0) {
-                            getActivity().getSupportLoaderManager().restartLoader(LOADER_ALL, null, mLoaderCallback);
+                            showingAll = true;
+                            if (gallerySnapshot != null) {
+                                mImageAdapter.setData(gallerySnapshot.images);
+                                if (resultList != null && resultList.size() > 0) {
+                                    mImageAdapter.setDefaultSelected(resultList);
+                                }
+                            }
                             mCategoryText.setText(R.string.ph_folder_all);
                             if (optionData.isShowCamera) {
                                 mImageAdapter.setShowCamera(true);
@@ -270,6 +323,9 @@ public class PhotoHanderFragment extends Fragment {
                         } else {
                             Folder folder = (Folder) v.getAdapter().getItem(index);
                             if (null != folder) {
+                                showingAll = false;
+                                shownBucketId = folder.bucketId;
+                                shownFolderCount = folder.images.size();
                                 mImageAdapter.setData(folder.images);
                                 mCategoryText.setText(folder.name);
                                 if (resultList != null && resultList.size() > 0) {
@@ -308,7 +364,23 @@ public class PhotoHanderFragment extends Fragment {
             return;
         }
         // load image data
-        getActivity().getSupportLoaderManager().initLoader(LOADER_ALL, null, mLoaderCallback);
+        loadImages();
+    }
+
+    @Override
+    public void onDestroyView() {
+        if (loadDisposable != null) {
+            loadDisposable.dispose();
+            loadDisposable = null;
+        }
+        if (pruneDisposable != null) {
+            pruneDisposable.dispose();
+            pruneDisposable = null;
+        }
+        if (reconciler != null) {
+            reconciler.dispose();
+        }
+        super.onDestroyView();
     }
 
     @Override
@@ -373,6 +445,9 @@ public class PhotoHanderFragment extends Fragment {
                         Toast.makeText(getActivity(), getString(R.string.ph_msg_amount_limit, optionData.mDefaultCount), Toast.LENGTH_SHORT).show();
                         return;
                     }
+                    if (!checkExists(image)) {
+                        return;
+                    }
                     resultList.add(image.path);
                     setYulanText();
                     if (mCallback != null) {
@@ -381,6 +456,9 @@ public class PhotoHanderFragment extends Fragment {
                 }
                 mImageAdapter.select(image);
             } else {
+                if (!checkExists(image)) {
+                    return;
+                }
                 if (mCallback != null) {
                     mCallback.onSingleImageSelected(image.path);
                 }
@@ -388,109 +466,132 @@ public class PhotoHanderFragment extends Fragment {
         }
     }
 
-    private LoaderManager.LoaderCallbacks<Cursor> mLoaderCallback = new LoaderManager.LoaderCallbacks<Cursor>() {
-
-        private final String[] IMAGE_PROJECTION = {
-                MediaStore.Images.Media.DATA,
-                MediaStore.Images.Media.DISPLAY_NAME,
-                MediaStore.Images.Media.DATE_ADDED,
-                MediaStore.Images.Media.MIME_TYPE,
-                MediaStore.Images.Media.SIZE,
-                MediaStore.Images.Media._ID};
-
-        @Override
-        public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-            CursorLoader cursorLoader = null;
-            if (id == LOADER_ALL) {
-                cursorLoader = new CursorLoader(getActivity(),
-                        MediaStore.Images.Media.EXTERNAL_CONTENT_URI, IMAGE_PROJECTION,
-                        IMAGE_PROJECTION[4] + ">0 AND " + IMAGE_PROJECTION[3] + "=? OR " + IMAGE_PROJECTION[3] + "=? ",
-                        new String[]{"image/jpeg", "image/png"}, IMAGE_PROJECTION[2] + " DESC");
-            } else if (id == LOADER_CATEGORY) {
-                cursorLoader = new CursorLoader(getActivity(),
-                        MediaStore.Images.Media.EXTERNAL_CONTENT_URI, IMAGE_PROJECTION,
-                        IMAGE_PROJECTION[4] + ">0 AND " + IMAGE_PROJECTION[0] + " like '%" + args.getString("path") + "%'",
-                        null, IMAGE_PROJECTION[2] + " DESC");
-            }
-            return cursorLoader;
+    /**
+     * 选择的时候才检查文件是否存在，不存在的马上从列表去掉
+     */
+    private boolean checkExists(Image image) {
+        if (GalleryReconciler.exists(image)) {
+            return true;
         }
+        Toast.makeText(getActivity(), R.string.ph_error_image_not_exist, Toast.LENGTH_SHORT).show();
+        removeInvalid(Collections.singleton(image.path));
+        return false;
+    }
 
-        private boolean fileExist(String path) {
-            if (!TextUtils.isEmpty(path)) {
-                return new File(path).exists();
+    /**
+     * 去掉已经不存在的图片，已经选择的取消选择
+     */
+    private void removeInvalid(Set<String> paths) {
+        //shownFolderCount 按照快照里面的位置计算，读取中的快照不去掉不存在的，这里不用减
+        mImageAdapter.removeInvalid(paths);
+        deadPaths.addAll(paths);
+        if (gallerySnapshot != null && gallerySnapshot.complete) {
+            //还在加载的时候，读取完的快照会去掉，有去掉的整个替换
+            pruneSnapshot();
+        }
+        boolean changed = false;
+        for (String path : paths) {
+            if (resultList.remove(path)) {
+                changed = true;
+                if (mCallback != null) {
+                    mCallback.onImageUnselected(path);
+                }
             }
-            return false;
         }
+        if (changed) {
+            setYulanText();
+        }
+    }
 
-        @Override
-        public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-            if (data != null) {
-                if (data.getCount() > 0) {
-                    List<Image> images = new ArrayList<>();
-                    data.getCount();
-                    data.moveToFirst();
-                    do {
-                        String path = data.getString(data.getColumnIndexOrThrow(IMAGE_PROJECTION[0]));
-                        String name = data.getString(data.getColumnIndexOrThrow(IMAGE_PROJECTION[1]));
-                        long dateTime = data.getLong(data.getColumnIndexOrThrow(IMAGE_PROJECTION[2]));
-                        if (!fileExist(path)) {
-                            continue;
-                        }
-                        Image image = null;
-                        if (!TextUtils.isEmpty(name)) {
-                            image = new Image(path, name, dateTime);
-                            images.add(image);
-                        }
-                        if (!hasFolderGened) {
-                            // get all folder data
-                            File folderFile = new File(path).getParentFile();
-                            if (folderFile != null && folderFile.exists()) {
-                                String fp = folderFile.getAbsolutePath();
-                                Folder f = getFolderByPath(fp);
-                                if (f == null) {
-                                    Folder folder = new Folder();
-                                    folder.name = folderFile.getName();
-                                    folder.path = fp;
-                                    folder.cover = image;
-                                    List<Image> imageList = new ArrayList<>();
-                                    imageList.add(image);
-                                    folder.images = imageList;
-                                    mResultFolder.add(folder);
-                                } else {
-                                    f.images.add(image);
-                                }
-                            }
+    /**
+     * 在后台从已经读取完的快照里面去掉不存在的路径，更新目录的数量和封面，保存的索引也去掉
+     * 图片列表已经由Adapter去掉了，这里只更新快照和目录
+     */
+    private void pruneSnapshot() {
+        if (pruneDisposable != null) {
+            pruneDisposable.dispose();
+        }
+        pruneDisposable = GalleryIndexer.prune(getActivity(), gallerySnapshot, new HashSet<>(deadPaths))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Consumer<GallerySnapshot>() {
+                    @Override
+                    public void accept(GallerySnapshot snapshot) throws Exception {
+                        gallerySnapshot = snapshot;
+                        if (!showingAll) {
+                            Folder folder = snapshot.folderIndex.get(shownBucketId);
+                            shownFolderCount = folder != null ? folder.images.size() : 0;
                         }
-
-                    } while (data.moveToNext());
-
-                    mImageAdapter.setData(images);
-                    if (resultList != null && resultList.size() > 0) {
-                        mImageAdapter.setDefaultSelected(resultList);
+                        mFolderAdapter.setData(snapshot.folders);
                     }
-                    if (!hasFolderGened) {
-                        mFolderAdapter.setData(mResultFolder);
-                        hasFolderGened = true;
+                }, new Consumer<Throwable>() {
+                    @Override
+                    public void accept(Throwable throwable) throws Exception {
+                        throwable.printStackTrace();
                     }
-                }
-            }
-        }
-
-        @Override
-        public void onLoaderReset(Loader<Cursor> loader) {
+                });
+    }
 
+    /**
+     * 在后台建立相册索引，第一页为一屏，马上显示，后面每一页生成一个快照追加
+     * 有上次保存的索引就先显示保存的，对比之后有变化再整个替换
+     * 主线程只使用快照，不遍历游标，不做文件操作
+     */
+    private void loadImages() {
+        if (loadDisposable != null) {
+            loadDisposable.dispose();
         }
-    };
+        gallerySnapshot = null;
+        loadDisposable = GalleryIndexer.index(getActivity(), getFirstPageSize(), MediaStorePager.DEFAULT_PAGE_SIZE,
+                deadPaths)
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Consumer<GallerySnapshot>() {
+                    @Override
+                    public void accept(GallerySnapshot snapshot) throws Exception {
+                        boolean firstPage = gallerySnapshot == null;
+                        gallerySnapshot = snapshot;
+                        if (showingAll) {
+                            if (firstPage || snapshot.reset) {
+                                mImageAdapter.setData(snapshot.images);
+                            } else {
+                                mImageAdapter.addData(snapshot.newImages());
+                            }
+                        } else {
+                            Folder folder = snapshot.folderIndex.get(shownBucketId);
+                            if (snapshot.reset && folder != null) {
+                                //和上次保存的索引对比之后有变化，整个替换
+                                mImageAdapter.setData(folder.images);
+                                shownFolderCount = folder.images.size();
+                            } else if (folder != null && folder.images.size() > shownFolderCount) {
+                                mImageAdapter.addData(folder.images.subList(shownFolderCount, folder.images.size()));
+                                shownFolderCount = folder.images.size();
+                            }
+                        }
+                        if (resultList != null && resultList.size() > 0) {
+                            mImageAdapter.setDefaultSelected(resultList);
+                        }
+                        mFolderAdapter.setData(snapshot.folders);
+                        if (snapshot.complete) {
+                            //加载完之后在后台分批检查全部文件
+                            reconciler.sweep(snapshot.images);
+                        }
+                    }
+                }, new Consumer<Throwable>() {
+                    @Override
+                    public void accept(Throwable throwable) throws Exception {
+                        throwable.printStackTrace();
+                    }
+                });
+    }
 
-    private Folder getFolderByPath(String path) {
-        if (mResultFolder != null) {
-            for (Folder folder : mResultFolder) {
-                if (TextUtils.equals(folder.path, path)) {
-                    return folder;
-                }
-            }
-        }
-        return null;
+    /**
+     * 第一页的数量，一屏加一行
+     */
+    private int getFirstPageSize() {
+        Point point = PhotoHanderUtils.getScreenSize(getActivity());
+        int itemSize = Math.max(1, point.x / GRID_COLUMN);
+        return GRID_COLUMN * (point.y / itemSize + 1);
     }
 
     public void setSelectDatas(ArrayList<Image> selectDatas) {
@@ -66,6 +66,26 @@ class PhotoOptionData implements Parcelable {
      * 压缩等级
      */
     public int compressRank = Luban.THIRD_GEAR;
+    /**
+     * {@link Luban#QUALITY_GEAR} 的相似度阈值
+     */
+    public float compressSimilarity = Luban.DEFAULT_SIMILARITY;
+    /**
+     * 是否按照内容(照片，截图)选择压缩方式
+     */
+    public boolean compressContentAware = false;
+    /**
+     * 压缩输出格式
+     */
+    public int compressFormat = Luban.FORMAT_JPEG;
+    /**
+     * 压缩时的EXIF策略
+     */
+    public int exifPolicy = Luban.EXIF_STRIP_ALL;
+    /**
+     * 保留的EXIF标签，null为默认
+     */
+    public String[] exifTags;
     /**
      * 选择的模式
      */
@@ -100,6 +120,11 @@ class PhotoOptionData implements Parcelable {
         dest.writeInt(this.cropColor);
         dest.writeByte(this.isCompress ? (byte) 1 : (byte) 0);
         dest.writeInt(this.compressRank);
+        dest.writeFloat(this.compressSimilarity);
+        dest.writeByte(this.compressContentAware ? (byte) 1 : (byte) 0);
+        dest.writeInt(this.compressFormat);
+        dest.writeInt(this.exifPolicy);
+        dest.writeStringArray(this.exifTags);
         dest.writeInt(this.selectMode);
     }
 
@@ -114,6 +139,11 @@ class PhotoOptionData implements Parcelable {
         this.cropColor = in.readInt();
         this.isCompress = in.readByte() != 0;
         this.compressRank = in.readInt();
+        this.compressSimilarity = in.readFloat();
+        this.compressContentAware = in.readByte() != 0;
+        this.compressFormat = in.readInt();
+        this.exifPolicy = in.readInt();
+        this.exifTags = in.createStringArray();
         this.selectMode = in.readInt();
     }
 
@@ -48,11 +48,8 @@ public class FolderAdapter extends BaseAdapter {
      * @param folders
      */
     public void setData(List<Folder> folders) {
-        if (folders != null && folders.size() > 0) {
-            mFolders = folders;
-        } else {
-            mFolders.clear();
-        }
+        //传入的可能是只读的快照，不在原列表上修改
+        mFolders = folders != null ? folders : new ArrayList<Folder>();
         notifyDataSetChanged();
     }
 
@@ -118,7 +115,7 @@ public class FolderAdapter extends BaseAdapter {
         int result = 0;
         if (mFolders != null && mFolders.size() > 0) {
             for (Folder f : mFolders) {
-                result += f.images.size();
+                result += Math.max(f.count, f.images != null ? f.images.size() : 0);
             }
         }
         return result;
@@ -159,25 +156,22 @@ public class FolderAdapter extends BaseAdapter {
             }
             name.setText(data.name);
             path.setText(data.path);
-            if (data.images != null) {
-                size.setText(String.format("%d%s", data.images.size(), mContext.getResources().getString(R.string.ph_photo_unit)));
+            if (data.count > 0 || data.images != null) {
+                int count = Math.max(data.count, data.images != null ? data.images.size() : 0);
+                size.setText(String.format("%d%s", count, mContext.getResources().getString(R.string.ph_photo_unit)));
             } else {
                 size.setText("*" + mContext.getResources().getString(R.string.ph_photo_unit));
             }
 
             if (data.cover != null) {
-                File imageFile = new File(data.cover.path);
-                if (imageFile.exists()) {
-                    // 显示图片
-                    Glide.with((Activity) mContext)
-                            .load(imageFile)
-                            .apply(new RequestOptions().placeholder(R.drawable.ph_default_error)
-                                    .override(mImageSize, mImageSize)
-                                    .centerCrop())
-                            .into(cover);
-                } else {
-                    cover.setImageResource(R.drawable.ph_default_error);
-                }
+                // 显示图片，不存在的由加载失败显示错误图
+                Glide.with((Activity) mContext)
+                        .load(new File(data.cover.path))
+                        .apply(new RequestOptions().placeholder(R.drawable.ph_default_error)
+                                .error(R.drawable.ph_default_error)
+                                .override(mImageSize, mImageSize)
+                                .centerCrop())
+                        .into(cover);
             } else {
                 cover.setImageResource(R.drawable.ph_default_error);
             }
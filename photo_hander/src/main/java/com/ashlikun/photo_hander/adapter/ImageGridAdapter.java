@@ -2,6 +2,7 @@ package com.ashlikun.photo_hander.adapter;
 
 import android.content.Context;
 import android.graphics.Point;
+import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
@@ -14,11 +15,19 @@ import com.ashlikun.photo_hander.R;
 import com.ashlikun.photo_hander.bean.Image;
 import com.ashlikun.photo_hander.utils.PhotoHanderUtils;
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.engine.GlideException;
+import com.bumptech.glide.request.RequestListener;
 import com.bumptech.glide.request.RequestOptions;
+import com.bumptech.glide.request.target.Target;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author　　: 李坤
@@ -43,7 +52,12 @@ public class ImageGridAdapter extends RecyclerView.Adapter<ImageGridAdapter.View
     private ArrayList<Image> addList = null;
     private List<Image> mImages = new ArrayList<>();
     private List<Image> mSelectedImages = new ArrayList<>();
+    /**
+     * 已经确认不存在的图片，后面设置的数据也会去掉
+     */
+    private Set<String> invalidPaths = new HashSet<>();
     OnItemClickListener onItemClickListener;
+    OnLoadFailedListener onLoadFailedListener;
     final int mGridWidth;
 
     public ImageGridAdapter(Context context, boolean showCamera, int column) {
@@ -104,13 +118,15 @@ public class ImageGridAdapter extends RecyclerView.Adapter<ImageGridAdapter.View
      * @param resultList
      */
     public void setDefaultSelected(ArrayList<String> resultList) {
+        boolean changed = false;
         for (String path : resultList) {
             Image image = getImageByPath(path);
-            if (image != null) {
+            if (image != null && !mSelectedImages.contains(image)) {
                 mSelectedImages.add(image);
+                changed = true;
             }
         }
-        if (mSelectedImages.size() > 0) {
+        if (changed) {
             notifyDataSetChanged();
         }
     }
@@ -133,17 +149,60 @@ public class ImageGridAdapter extends RecyclerView.Adapter<ImageGridAdapter.View
      */
     public void setData(List<Image> images) {
         mSelectedImages.clear();
-        if (images != null && images.size() > 0) {
-            mImages = images;
-        } else {
-            mImages.clear();
-        }
+        //复制一份，传入的可能是只读的快照或者目录的列表
+        mImages = images != null ? new ArrayList<>(images) : new ArrayList<Image>();
+        removeInvalid(mImages);
         if (addList != null && !addList.isEmpty()) {
             mImages.addAll(0, addList);
         }
         notifyDataSetChanged();
     }
 
+    /**
+     * 追加分页加载的数据，不改变已经选择的
+     *
+     * @param images
+     */
+    public void addData(List<Image> images) {
+        if (images == null || images.isEmpty()) {
+            return;
+        }
+        int start = getItemCount();
+        int size = mImages.size();
+        mImages.addAll(images);
+        removeInvalid(mImages.subList(size, mImages.size()));
+        notifyItemRangeInserted(start, mImages.size() - size);
+    }
+
+    /**
+     * 去掉已经不存在的图片，已经选择的也去掉
+     *
+     * @param paths 不存在的路径
+     */
+    public void removeInvalid(Collection<String> paths) {
+        invalidPaths.addAll(paths);
+        boolean changed = removeInvalid(mImages);
+        changed |= removeInvalid(mSelectedImages);
+        if (changed) {
+            notifyDataSetChanged();
+        }
+    }
+
+    private boolean removeInvalid(List<Image> images) {
+        if (invalidPaths.isEmpty()) {
+            return false;
+        }
+        boolean changed = false;
+        Iterator<Image> iterator = images.iterator();
+        while (iterator.hasNext()) {
+            if (invalidPaths.contains(iterator.next().path)) {
+                iterator.remove();
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
     @Override
     public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         ViewHolder viewHolder;
@@ -206,6 +265,13 @@ public class ImageGridAdapter extends RecyclerView.Adapter<ImageGridAdapter.View
         return showCamera ? mImages.size() + 1 : mImages.size();
     }
 
+    /**
+     * 缩略图加载失败的回调，可能是文件已经不存在
+     */
+    public void setOnLoadFailedListener(OnLoadFailedListener onLoadFailedListener) {
+        this.onLoadFailedListener = onLoadFailedListener;
+    }
+
     public void setOnItemClickListener(OnItemClickListener onItemClickListener) {
         this.onItemClickListener = onItemClickListener;
     }
@@ -264,20 +330,28 @@ public class ImageGridAdapter extends RecyclerView.Adapter<ImageGridAdapter.View
                                 .centerCrop())
                         .into(image);
             } else {
-                // 显示本地图片
-                File imageFile = new File(data.path);
-                if (imageFile.exists()) {
-
-                    Glide.with(mContext)
-                            .load(imageFile)
-                            .apply(new RequestOptions().placeholder(R.drawable.ph_default_error)
-                                    .error(R.drawable.ph_default_error)
-                                    .override(mGridWidth, mGridWidth)
-                                    .centerCrop())
-                            .into(image);
-                } else {
-                    image.setImageResource(R.drawable.ph_default_error);
-                }
+                // 显示本地图片，不在这里检查文件是否存在，加载失败再交给调用方检查
+                Glide.with(mContext)
+                        .load(new File(data.path))
+                        .apply(new RequestOptions().placeholder(R.drawable.ph_default_error)
+                                .error(R.drawable.ph_default_error)
+                                .override(mGridWidth, mGridWidth)
+                                .centerCrop())
+                        .listener(new RequestListener<Drawable>() {
+                            @Override
+                            public boolean onLoadFailed(GlideException e, Object model, Target<Drawable> target, boolean isFirstResource) {
+                                if (onLoadFailedListener != null) {
+                                    onLoadFailedListener.onLoadFailed(data);
+                                }
+                                return false;
+                            }
+
+                            @Override
+                            public boolean onResourceReady(Drawable resource, Object model, Target<Drawable> target, DataSource dataSource, boolean isFirstResource) {
+                                return false;
+                            }
+                        })
+                        .into(image);
             }
         }
     }
@@ -290,6 +364,15 @@ public class ImageGridAdapter extends RecyclerView.Adapter<ImageGridAdapter.View
         return (ArrayList<Image>) mSelectedImages;
     }
 
+    public interface OnLoadFailedListener {
+        /**
+         * 本地图片的缩略图加载失败
+         *
+         * @param data
+         */
+        void onLoadFailed(Image data);
+    }
+
     public interface OnItemClickListener {
         /**
          * Check点击回掉
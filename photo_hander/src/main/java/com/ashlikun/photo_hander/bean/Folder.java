@@ -13,6 +13,14 @@ public class Folder {
     public String path;
     public Image cover;
     public List<Image> images;
+    /**
+     * 系统相册的目录id
+     */
+    public long bucketId;
+    /**
+     * 目录里面图片的总数，分组查询得到的数量可能比已经加载的 {@link #images} 多
+     */
+    public int count;
 
     @Override
     public boolean equals(Object o) {
@@ -0,0 +1,59 @@
+package com.ashlikun.photo_hander.bean;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/15 14:10
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：相册索引的快照
+ * 在后台线程生成，生成之后不再修改，列表都是只读的，可以直接交给主线程使用
+ * 每读取一页生成一次，后面的快照包含前面的全部数据，读取中的快照共享同一份数据，不复制
+ * 读取中的快照还可能有已经发现不存在的路径，读取完的快照会去掉，有去掉的标记为 {@link #reset}
+ * 先显示上次保存的索引的时候，和系统相册对比之后有变化会生成一个 {@link #reset} 的快照，需要整个替换
+ */
+public final class GallerySnapshot {
+    /**
+     * 目前读取到的全部图片，按照添加时间倒序
+     */
+    public final List<Image> images;
+    /**
+     * 按照目录分组，目录里面的图片列表也是只读的
+     */
+    public final List<Folder> folders;
+    /**
+     * BUCKET_ID -> 目录
+     */
+    public final Map<Long, Folder> folderIndex;
+    /**
+     * 这次快照新增的图片数量，在 {@link #images} 的最后
+     */
+    public final int newCount;
+    /**
+     * 是否已经读取完
+     */
+    public final boolean complete;
+    /**
+     * 不是在上一个快照后面追加的，有删除或者顺序变化，需要整个替换
+     */
+    public final boolean reset;
+
+    public GallerySnapshot(List<Image> images, List<Folder> folders, Map<Long, Folder> folderIndex,
+                           int newCount, boolean complete, boolean reset) {
+        this.images = images;
+        this.folders = folders;
+        this.folderIndex = folderIndex;
+        this.newCount = newCount;
+        this.complete = complete;
+        this.reset = reset;
+    }
+
+    /**
+     * 这次快照新增的图片
+     */
+    public List<Image> newImages() {
+        return images.subList(images.size() - newCount, images.size());
+    }
+}
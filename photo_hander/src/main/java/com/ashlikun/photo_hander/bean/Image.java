@@ -19,6 +19,17 @@ public class Image implements Parcelable {
     public String path;
     public String name;
     public long time;
+    /**
+     * 系统相册的目录id和名称 {@link android.provider.MediaStore.Images.ImageColumns#BUCKET_ID}
+     */
+    public long bucketId;
+    public String bucketName;
+    /**
+     * 系统相册的记录id、文件大小和修改时间(秒)，用来和上次保存的相册索引对比
+     */
+    public long id;
+    public long size;
+    public long dateModified;
 
     /**
      * 是否是网络数据
@@ -60,12 +71,22 @@ public class Image implements Parcelable {
         dest.writeString(this.path);
         dest.writeString(this.name);
         dest.writeLong(this.time);
+        dest.writeLong(this.bucketId);
+        dest.writeString(this.bucketName);
+        dest.writeLong(this.id);
+        dest.writeLong(this.size);
+        dest.writeLong(this.dateModified);
     }
 
     protected Image(Parcel in) {
         this.path = in.readString();
         this.name = in.readString();
         this.time = in.readLong();
+        this.bucketId = in.readLong();
+        this.bucketName = in.readString();
+        this.id = in.readLong();
+        this.size = in.readLong();
+        this.dateModified = in.readLong();
     }
 
     public static final Creator<Image> CREATOR = new Creator<Image>() {
@@ -23,6 +23,21 @@ public class ImageSelectData implements Parcelable {
      * 是否压缩失败
      */
     public boolean isComparessError = false;
+    /**
+     * 压缩图的类型，例如 image/jpeg，image/webp，不知道为null
+     */
+    public String mimeType;
+    /**
+     * 压缩时判断的内容类型，开启 CompressJob.putContentAware 才有
+     * {@link com.ashlikun.photo_hander.compress.Luban#CONTENT_PHOTO}
+     * {@link com.ashlikun.photo_hander.compress.Luban#CONTENT_GRAPHIC}
+     */
+    public int contentType;
+    /**
+     * 在压缩的图片列表里面的位置，CompressJob.asFlowable 按照完成的顺序发送，用它对应到原来的位置
+     * 不是压缩得到的为-1
+     */
+    public int index = -1;
 
     /**
      * 这张图片是否是网络图
@@ -89,6 +104,9 @@ public class ImageSelectData implements Parcelable {
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeString(this.originPath);
         dest.writeString(this.compressPath);
+        dest.writeString(this.mimeType);
+        dest.writeInt(this.contentType);
+        dest.writeInt(this.index);
     }
 
     public ImageSelectData() {
@@ -97,6 +115,9 @@ public class ImageSelectData implements Parcelable {
     protected ImageSelectData(Parcel in) {
         this.originPath = in.readString();
         this.compressPath = in.readString();
+        this.mimeType = in.readString();
+        this.contentType = in.readInt();
+        this.index = in.readInt();
     }
 
     public static final Creator<ImageSelectData> CREATOR = new Creator<ImageSelectData>() {
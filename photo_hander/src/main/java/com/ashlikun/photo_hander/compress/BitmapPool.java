@@ -0,0 +1,158 @@
+package com.ashlikun.photo_hander.compress;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/9 15:30
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：压缩用的Bitmap复用池
+ * 按照分配的字节数分桶，解码的时候通过 {@link android.graphics.BitmapFactory.Options#inBitmap} 复用
+ * 4.4 以下 inBitmap 要求宽高完全一致，基本用不上，所以只在 4.4 以上启用
+ */
+class BitmapPool {
+    /**
+     * 复用的Bitmap最多比需要的大几倍，太大浪费内存
+     */
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private static volatile BitmapPool INSTANCE;
+
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> buckets = new TreeMap<>();
+    private final long maxSize;
+    private long currentSize;
+
+    private BitmapPool(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 全局共用的池，大小为每个压缩线程保留一张图片
+     */
+    static BitmapPool get() {
+        if (INSTANCE == null) {
+            synchronized (BitmapPool.class) {
+                if (INSTANCE == null) {
+                    long maxSize = Math.min(Runtime.getRuntime().maxMemory() / 8,
+                            CompressExecutor.getParallelism() * 2048L * 2048L * 4L);
+                    INSTANCE = new BitmapPool(maxSize);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * 是否可以复用
+     */
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    /**
+     * 获取解码时 inBitmap 用的Bitmap
+     *
+     * @param byteCount 解码后需要的字节数
+     * @return 没有合适的返回null
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    synchronized Bitmap getForDecode(long byteCount) {
+        if (!isSupported() || byteCount <= 0 || byteCount > Integer.MAX_VALUE) {
+            return null;
+        }
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry = buckets.ceilingEntry((int) byteCount);
+        if (entry == null || entry.getKey() > byteCount * MAX_SIZE_MULTIPLE) {
+            return null;
+        }
+        return take(entry);
+    }
+
+    /**
+     * 获取指定宽高的Bitmap，内容是脏的，需要完全覆盖
+     *
+     * @return 没有合适的返回null
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    Bitmap getDirty(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = getForDecode((long) width * height * bytesPerPixel(config));
+        if (bitmap != null) {
+            try {
+                bitmap.reconfigure(width, height, config);
+            } catch (IllegalArgumentException e) {
+                bitmap.recycle();
+                return null;
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * 用完的Bitmap放回池里，放不下直接回收
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (!isSupported() || !bitmap.isMutable()) {
+            bitmap.recycle();
+            return;
+        }
+        int size = bitmap.getAllocationByteCount();
+        if (size > maxSize) {
+            bitmap.recycle();
+            return;
+        }
+        ArrayDeque<Bitmap> bucket = buckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            buckets.put(size, bucket);
+        }
+        bucket.addLast(bitmap);
+        currentSize += size;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * 清空池，所有Bitmap回收
+     */
+    synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * 超出大小先回收最大的
+     */
+    private void trimToSize(long size) {
+        while (currentSize > size && !buckets.isEmpty()) {
+            take(buckets.lastEntry()).recycle();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private Bitmap take(Map.Entry<Integer, ArrayDeque<Bitmap>> entry) {
+        ArrayDeque<Bitmap> bucket = entry.getValue();
+        Bitmap bitmap = bucket.pollFirst();
+        if (bucket.isEmpty()) {
+            buckets.remove(entry.getKey());
+        }
+        currentSize -= bitmap.getAllocationByteCount();
+        return bitmap;
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+}
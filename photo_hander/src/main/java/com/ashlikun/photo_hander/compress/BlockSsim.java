@@ -0,0 +1,119 @@
+package com.ashlikun.photo_hander.compress;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/13 15:30
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：简化的结构相似度(SSIM)
+ * 在缩小后的亮度图上按照 8*8 的块计算SSIM再取平均，只用来比较同一张图片不同质量的编码结果
+ * 在压缩线程计算，缩小后长边不超过 {@link #MAX_SIDE}，一次比较只需要解码一张小图
+ */
+class BlockSsim {
+    /**
+     * 亮度图最大边长
+     */
+    static final int MAX_SIDE = 512;
+    private static final int BLOCK = 8;
+    private static final double C1 = (0.01 * 255) * (0.01 * 255);
+    private static final double C2 = (0.03 * 255) * (0.03 * 255);
+
+    final int width;
+    final int height;
+    private final float[] reference;
+
+    /**
+     * @param bitmap 参考图片，也就是要编码的图片
+     */
+    BlockSsim(Bitmap bitmap) {
+        float scale = Math.min(1f, MAX_SIDE / (float) Math.max(bitmap.getWidth(), bitmap.getHeight()));
+        width = Math.max(BLOCK, Math.round(bitmap.getWidth() * scale));
+        height = Math.max(BLOCK, Math.round(bitmap.getHeight() * scale));
+        reference = luma(bitmap);
+    }
+
+    /**
+     * 解码编码结果，和参考图片比较
+     *
+     * @return SSIM，0-1，越大越接近，解码失败返回0
+     */
+    double compare(byte[] data, int length) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        //JPEG解码器可以直接按照2的幂次缩小，解码很快
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, length, options);
+        int sample = 1;
+        while (options.outWidth / (sample * 2) >= width && options.outHeight / (sample * 2) >= height) {
+            sample *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sample;
+        Bitmap decoded = BitmapFactory.decodeByteArray(data, 0, length, options);
+        if (decoded == null) {
+            return 0;
+        }
+        try {
+            return compare(luma(decoded));
+        } finally {
+            decoded.recycle();
+        }
+    }
+
+    private double compare(float[] other) {
+        double sum = 0;
+        int count = 0;
+        for (int by = 0; by + BLOCK <= height; by += BLOCK) {
+            for (int bx = 0; bx + BLOCK <= width; bx += BLOCK) {
+                sum += blockSsim(reference, other, bx, by);
+                count++;
+            }
+        }
+        return count == 0 ? 1 : sum / count;
+    }
+
+    private double blockSsim(float[] a, float[] b, int bx, int by) {
+        double sumA = 0, sumB = 0, sumAA = 0, sumBB = 0, sumAB = 0;
+        for (int y = by; y < by + BLOCK; y++) {
+            int row = y * width;
+            for (int x = bx; x < bx + BLOCK; x++) {
+                double va = a[row + x];
+                double vb = b[row + x];
+                sumA += va;
+                sumB += vb;
+                sumAA += va * va;
+                sumBB += vb * vb;
+                sumAB += va * vb;
+            }
+        }
+        int n = BLOCK * BLOCK;
+        double meanA = sumA / n;
+        double meanB = sumB / n;
+        double varA = sumAA / n - meanA * meanA;
+        double varB = sumBB / n - meanB * meanB;
+        double cov = sumAB / n - meanA * meanB;
+        return ((2 * meanA * meanB + C1) * (2 * cov + C2))
+                / ((meanA * meanA + meanB * meanB + C1) * (varA + varB + C2));
+    }
+
+    /**
+     * 缩放到 width*height 之后的亮度
+     */
+    private float[] luma(Bitmap bitmap) {
+        Bitmap scaled = bitmap.getWidth() == width && bitmap.getHeight() == height
+                ? bitmap : Bitmap.createScaledBitmap(bitmap, width, height, true);
+        int[] pixels = new int[width * height];
+        scaled.getPixels(pixels, 0, width, 0, 0, width, height);
+        if (scaled != bitmap) {
+            scaled.recycle();
+        }
+        float[] luma = new float[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            int p = pixels[i];
+            luma[i] = 0.299f * ((p >> 16) & 0xFF) + 0.587f * ((p >> 8) & 0xFF) + 0.114f * (p & 0xFF);
+        }
+        return luma;
+    }
+}
@@ -0,0 +1,39 @@
+package com.ashlikun.photo_hander.compress;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/12 9:50
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：压缩的取消标记
+ * 一次压缩一个实例，取消之后正在压缩的图片在下一个阶段之间或者下一次编码之前停止
+ */
+class CancelToken {
+    /**
+     * 不会取消
+     */
+    static final CancelToken NONE = new CancelToken();
+
+    private volatile boolean cancelled;
+
+    void cancel() {
+        if (this != NONE) {
+            cancelled = true;
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 已经取消就抛出 {@link CancellationException}
+     */
+    void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException("compress cancelled");
+        }
+    }
+}
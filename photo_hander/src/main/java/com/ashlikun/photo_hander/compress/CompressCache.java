@@ -0,0 +1,435 @@
+package com.ashlikun.photo_hander.compress;
+
+import com.ashlikun.photo_hander.utils.PhotoHanderUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/4 9:40
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：压缩结果的磁盘缓存
+ * key 由 原图路径 + 大小 + 修改时间 + 压缩参数 计算md5，原图修改过之后不会命中旧的结果
+ * 内存中保存访问顺序的索引，日志文件记录每次操作，超过缓存大小按照LRU删除
+ * 文件写完(重命名到最终位置)之后才记录到日志，读取的时候长度不一致的当作损坏删除
+ * <p>
+ * 日志格式：
+ * P key length suffix content  添加，content 为内容类型
+ * R key          读取
+ * D key          删除
+ */
+public class CompressCache {
+    /**
+     * 默认缓存大小 50M
+     */
+    public static final long DEFAULT_MAX_SIZE = 50 * 1024 * 1024;
+
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TEMP = "journal.tmp";
+    private static final String MAGIC = "luban.journal";
+    private static final String VERSION = "3";
+    private static final String PUT = "P";
+    private static final String READ = "R";
+    private static final String REMOVE = "D";
+    /**
+     * 多余的日志超过这个数量就重建日志
+     */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Map<String, CompressCache> CACHES = new LinkedHashMap<>();
+
+    private final File directory;
+    private final File journalFile;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(0, 0.75f, true);
+    private long maxSize = DEFAULT_MAX_SIZE;
+    private long size;
+    private Writer journalWriter;
+    private int redundantOpCount;
+    private boolean loaded;
+
+    private long hitCount;
+    private long missCount;
+    private long putCount;
+    private long evictionCount;
+
+    private CompressCache(File directory) {
+        this.directory = directory;
+        this.journalFile = new File(directory, JOURNAL_FILE);
+    }
+
+    /**
+     * 获取目录对应的缓存，同一个目录共用一个实例
+     * 这里不会读取磁盘，第一次使用的时候才加载日志
+     */
+    public static CompressCache open(File directory) {
+        synchronized (CACHES) {
+            String path = directory.getAbsolutePath();
+            CompressCache cache = CACHES.get(path);
+            if (cache == null) {
+                cache = new CompressCache(directory);
+                CACHES.put(path, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * 计算缓存的key
+     *
+     * @param source  原图
+     * @param variant 压缩参数，参数不同的结果分开缓存
+     */
+    public static String key(File source, String variant) {
+        String raw = source.getAbsolutePath() + "|" + source.length() + "|" + source.lastModified() + "|" + variant;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] bytes = digest.digest(raw.getBytes(UTF_8));
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                int v = b & 0xff;
+                if (v < 0x10) {
+                    sb.append('0');
+                }
+                sb.append(Integer.toHexString(v));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(raw.hashCode()) + Long.toHexString(raw.length());
+        }
+    }
+
+    /**
+     * key 对应的缓存文件，压缩结果直接写到这个文件，写完之后调用 {@link #put}
+     *
+     * @param suffix 文件后缀，例如 .jpg
+     */
+    public File getFile(String key, String suffix) {
+        return new File(directory, key + suffix);
+    }
+
+    /**
+     * 查找缓存
+     *
+     * @return 没有命中返回null
+     */
+    public synchronized File get(String key) {
+        ensureLoaded();
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        File file = getFile(key, entry.suffix);
+        if (file.length() != entry.length) {
+            //文件被外部删除了，或者没有完整写入磁盘
+            entries.remove(key);
+            size -= entry.length;
+            appendJournal(REMOVE, key, null);
+            file.delete();
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        appendJournal(READ, key, null);
+        return file;
+    }
+
+    /**
+     * 缓存记录的内容类型，命中缓存的时候不用再判断
+     *
+     * @return 没有记录返回 {@link Luban#CONTENT_UNKNOWN}
+     */
+    public synchronized int getContentType(String key) {
+        ensureLoaded();
+        Entry entry = entries.get(key);
+        return entry == null ? Luban.CONTENT_UNKNOWN : entry.contentType;
+    }
+
+    /**
+     * 压缩结果已经写到 {@link #getFile} 之后，记录到缓存
+     *
+     * @param contentType 内容类型 {@link Luban#CONTENT_PHOTO} 等
+     */
+    public synchronized void put(String key, String suffix, int contentType) {
+        ensureLoaded();
+        File file = getFile(key, suffix);
+        if (!file.exists()) {
+            return;
+        }
+        long length = file.length();
+        Entry old = entries.put(key, new Entry(length, suffix, contentType));
+        if (old != null) {
+            size -= old.length;
+            if (!old.suffix.equals(suffix)) {
+                getFile(key, old.suffix).delete();
+            }
+        }
+        size += length;
+        putCount++;
+        appendJournal(PUT, key, length + " " + suffix + " " + contentType);
+        trimToSize(maxSize);
+    }
+
+    /**
+     * 删除缓存
+     */
+    public synchronized void remove(String key) {
+        ensureLoaded();
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.length;
+            appendJournal(REMOVE, key, null);
+            getFile(key, entry.suffix).delete();
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        ensureLoaded();
+        trimToSize(0);
+        rebuildJournal();
+    }
+
+    /**
+     * 设置缓存最大字节数
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        if (loaded) {
+            trimToSize(maxSize);
+        }
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 当前缓存的字节数
+     */
+    public synchronized long size() {
+        ensureLoaded();
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        ensureLoaded();
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getPutCount() {
+        return putCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long accesses = hitCount + missCount;
+        int hitPercent = accesses != 0 ? (int) (100 * hitCount / accesses) : 0;
+        return "CompressCache[size=" + size + ",maxSize=" + maxSize + ",entries=" + entries.size()
+                + ",hits=" + hitCount + ",misses=" + missCount + ",hitRate=" + hitPercent + "%"
+                + ",evictions=" + evictionCount + "]";
+    }
+
+    private void trimToSize(long maxSize) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+            size -= eldest.getValue().length;
+            getFile(eldest.getKey(), eldest.getValue().suffix).delete();
+            appendJournal(REMOVE, eldest.getKey(), null);
+            evictionCount++;
+        }
+    }
+
+    /**
+     * 读取日志，重建索引
+     * 没有记录在日志里面的文件(旧版本留下的或者写到一半的)全部删除
+     */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        if (journalFile.exists()) {
+            readJournal();
+        }
+        Set<String> names = new HashSet<>();
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            File file = getFile(entry.getKey(), entry.getValue().suffix);
+            if (file.length() == entry.getValue().length) {
+                names.add(file.getName());
+            } else {
+                size -= entry.getValue().length;
+                iterator.remove();
+            }
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (file.isFile() && !names.contains(name)
+                        && !JOURNAL_FILE.equals(name) && !JOURNAL_FILE_TEMP.equals(name)) {
+                    file.delete();
+                }
+            }
+        }
+        rebuildJournal();
+        trimToSize(maxSize);
+    }
+
+    private void readJournal() {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), UTF_8));
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())) {
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length < 2) {
+                    //最后一行可能没有写完
+                    continue;
+                }
+                String key = parts[1];
+                if (PUT.equals(parts[0]) && parts.length == 5) {
+                    long length;
+                    int contentType;
+                    try {
+                        length = Long.parseLong(parts[2]);
+                        contentType = Integer.parseInt(parts[4]);
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    Entry old = entries.put(key, new Entry(length, parts[3], contentType));
+                    if (old != null) {
+                        size -= old.length;
+                    }
+                    size += length;
+                } else if (READ.equals(parts[0])) {
+                    entries.get(key);
+                } else if (REMOVE.equals(parts[0])) {
+                    Entry old = entries.remove(key);
+                    if (old != null) {
+                        size -= old.length;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            PhotoHanderUtils.closeSilently(reader);
+        }
+    }
+
+    /**
+     * 按照当前的索引重写日志，去掉多余的记录
+     */
+    private void rebuildJournal() {
+        PhotoHanderUtils.closeSilently(journalWriter);
+        journalWriter = null;
+        File temp = new File(directory, JOURNAL_FILE_TEMP);
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF_8));
+            writer.write(MAGIC);
+            writer.write('\n');
+            writer.write(VERSION);
+            writer.write('\n');
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                writer.write(PUT + " " + entry.getKey() + " " + entry.getValue().length
+                        + " " + entry.getValue().suffix + " " + entry.getValue().contentType + '\n');
+            }
+            writer.flush();
+            writer.close();
+            writer = null;
+            if (!temp.renameTo(journalFile)) {
+                journalFile.delete();
+                temp.renameTo(journalFile);
+            }
+            journalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true), UTF_8));
+            redundantOpCount = 0;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            PhotoHanderUtils.closeSilently(writer);
+        }
+    }
+
+    /**
+     * @param extra 操作的附加信息，没有传null
+     */
+    private void appendJournal(String op, String key, String extra) {
+        redundantOpCount++;
+        if (redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && redundantOpCount >= entries.size()) {
+            rebuildJournal();
+            return;
+        }
+        if (journalWriter == null) {
+            return;
+        }
+        try {
+            if (extra != null) {
+                journalWriter.write(op + " " + key + " " + extra + '\n');
+            } else {
+                journalWriter.write(op + " " + key + '\n');
+            }
+            journalWriter.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 缓存文件的大小，后缀和内容类型
+     */
+    private static class Entry {
+        final long length;
+        final String suffix;
+        final int contentType;
+
+        Entry(long length, String suffix, int contentType) {
+            this.length = length;
+            this.suffix = suffix;
+            this.contentType = contentType;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.ashlikun.photo_hander.compress;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/2 10:12
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：图片压缩的线程池
+ * 线程数 = min(cpu核心数, 堆内存预算 / 单张图片预估内存)，至少为1
+ */
+class CompressExecutor {
+    /**
+     * 单张图片压缩时预估占用的内存
+     * 按照解码后 2048*2048 的 ARGB_8888 图片，加上旋转时的一份拷贝计算
+     */
+    private static final long PER_IMAGE_BYTES = 2048L * 2048L * 4L * 2L;
+    /**
+     * 压缩最多可以使用的堆内存比例
+     */
+    private static final float MEMORY_FRACTION = 0.25f;
+    /**
+     * 空闲线程存活时间
+     */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static volatile Scheduler scheduler;
+    private static volatile int parallelism;
+
+    private CompressExecutor() {
+    }
+
+    /**
+     * 获取可以同时压缩的图片数量
+     */
+    static int getParallelism() {
+        if (parallelism == 0) {
+            int cpu = Runtime.getRuntime().availableProcessors();
+            long budget = (long) (Runtime.getRuntime().maxMemory() * MEMORY_FRACTION);
+            int memoryLimit = (int) (budget / PER_IMAGE_BYTES);
+            parallelism = Math.max(1, Math.min(cpu, memoryLimit));
+        }
+        return parallelism;
+    }
+
+    /**
+     * 获取压缩用的调度器，所有压缩任务共用
+     */
+    static Scheduler scheduler() {
+        if (scheduler == null) {
+            synchronized (CompressExecutor.class) {
+                if (scheduler == null) {
+                    int size = getParallelism();
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size,
+                            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(), new CompressThreadFactory());
+                    executor.allowCoreThreadTimeOut(true);
+                    scheduler = Schedulers.from(executor);
+                }
+            }
+        }
+        return scheduler;
+    }
+
+    private static class CompressThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "luban-compress-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
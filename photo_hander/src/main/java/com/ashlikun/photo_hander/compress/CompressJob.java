@@ -0,0 +1,251 @@
+package com.ashlikun.photo_hander.compress;
+
+import com.ashlikun.photo_hander.bean.ImageSelectData;
+
+import org.reactivestreams.Publisher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import io.reactivex.Flowable;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/8 11:05
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：一次压缩任务
+ * 由 {@link Luban#load(List)} 创建，自己持有待压缩的图片、压缩参数和结果
+ * 多个任务共用 {@link Luban} 的线程池和缓存，可以同时执行互不影响
+ */
+public class CompressJob {
+    private final Luban luban;
+    private final List<String> files;
+    private OnCompressListener compressListener;
+    private int gear = Luban.THIRD_GEAR;
+    private int format = Luban.FORMAT_JPEG;
+    private int exifPolicy = Luban.EXIF_STRIP_ALL;
+    private String[] exifTags;
+    private float similarity = Luban.DEFAULT_SIMILARITY;
+    private boolean contentAware;
+    private volatile Disposable disposable;
+    private volatile boolean cancelled;
+
+    CompressJob(Luban luban, List<String> files) {
+        this.luban = luban;
+        this.files = files == null ? new ArrayList<String>() : new ArrayList<>(files);
+    }
+
+    public CompressJob setCompressListener(OnCompressListener listener) {
+        compressListener = listener;
+        return this;
+    }
+
+    /**
+     * 压缩等级
+     * {@link Luban#FIRST_GEAR}
+     * {@link Luban#DOUBLE_GEAR}
+     * {@link Luban#THIRD_GEAR}
+     * {@link Luban#QUALITY_GEAR}
+     */
+    public CompressJob putGear(int gear) {
+        this.gear = gear;
+        return this;
+    }
+
+    /**
+     * {@link Luban#QUALITY_GEAR} 的相似度阈值，越大越清晰文件越大
+     *
+     * @param similarity 0-1，默认 {@link Luban#DEFAULT_SIMILARITY}
+     */
+    public CompressJob putSimilarity(float similarity) {
+        this.similarity = similarity;
+        return this;
+    }
+
+    /**
+     * 按照内容选择压缩方式，用压缩时解码的图片判断是照片还是截图、文档，不额外解码
+     * 截图保留能看清文字的尺寸，自动格式的在10.0开始用无损WEBP，其他按照相似度 {@link Luban#GRAPHIC_SIMILARITY} 编码
+     * 照片按照压缩等级处理，判断结果见 {@link ImageSelectData#contentType}
+     */
+    public CompressJob putContentAware(boolean contentAware) {
+        this.contentAware = contentAware;
+        return this;
+    }
+
+    /**
+     * 输出格式
+     * {@link Luban#FORMAT_JPEG}
+     * {@link Luban#FORMAT_WEBP}
+     * {@link Luban#FORMAT_WEBP_LOSSLESS} 10.0以下没有无损WEBP，输出PNG
+     * {@link Luban#FORMAT_AUTO} 截图在10.0开始用无损WEBP，以下用有损WEBP
+     */
+    public CompressJob putFormat(int format) {
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * EXIF策略
+     * {@link Luban#EXIF_STRIP_ALL}
+     * {@link Luban#EXIF_KEEP_WHITELIST}
+     * {@link Luban#EXIF_KEEP_ORIENTATION}
+     *
+     * @param tags {@link Luban#EXIF_KEEP_WHITELIST} 保留的标签，不传使用默认的时间、设备、GPS
+     */
+    public CompressJob putExifPolicy(int policy, String... tags) {
+        this.exifPolicy = policy;
+        this.exifTags = tags == null || tags.length == 0 ? null : tags.clone();
+        return this;
+    }
+
+    /**
+     * 待压缩的图片
+     */
+    public List<String> getFiles() {
+        return new ArrayList<>(files);
+    }
+
+    /**
+     * 开始压缩，结果回调到主线程
+     * 取消之后不会再回调，调用 {@link #cancel()} 取消
+     */
+    public CompressJob launch() {
+        final OnCompressListener listener = compressListener;
+        final int total = files.size();
+        if (listener != null) {
+            listener.onStart();
+        }
+        final ImageSelectData[] results = new ImageSelectData[total];
+        disposable = compressItems()
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Consumer<CompressItem>() {
+                    int progress = 0;
+
+                    @Override
+                    public void accept(CompressItem item) {
+                        results[item.index] = item.data;
+                        progress++;
+                        if (listener != null) {
+                            listener.onItemSuccess(item.index, item.data);
+                            listener.onLoading(progress, total);
+                        }
+                    }
+                }, new Consumer<Throwable>() {
+                    @Override
+                    public void accept(Throwable throwable) {
+                        if (listener != null) {
+                            listener.onError(throwable);
+                        }
+                    }
+                }, new Action() {
+                    @Override
+                    public void run() {
+                        if (listener != null) {
+                            listener.onSuccess(new ArrayList<>(Arrays.asList(results)));
+                        }
+                    }
+                });
+        if (cancelled) {
+            //launch 之前已经取消
+            disposable.dispose();
+        }
+        return this;
+    }
+
+    /**
+     * 取消 {@link #launch()} 开始的压缩
+     * 没有开始的图片不再压缩，正在压缩的图片在下一个阶段停止，写了一半的文件会删除
+     * {@link #asFlowable()} 的压缩通过取消订阅来取消
+     */
+    public void cancel() {
+        cancelled = true;
+        Disposable d = disposable;
+        if (d != null) {
+            d.dispose();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 以流的方式获取压缩结果，每张图片压缩完成马上发送，按照完成的顺序
+     * 用 {@link ImageSelectData#index} 对应到 {@link Luban#load(List)} 传入的列表里面的位置
+     * 订阅之后才开始压缩，结果在压缩线程发送，需要的话自己 observeOn
+     * 支持背压，下游处理不过来的时候不会继续压缩后面的图片
+     * 取消订阅会停止正在压缩的图片
+     */
+    public Flowable<ImageSelectData> asFlowable() {
+        return compressItems()
+                .map(new Function<CompressItem, ImageSelectData>() {
+                    @Override
+                    public ImageSelectData apply(CompressItem item) {
+                        return item.data;
+                    }
+                });
+    }
+
+    /**
+     * 多张图片并行压缩，最多同时压缩 {@link CompressExecutor#getParallelism()} 张
+     * 下游没有请求数据的时候不会开始新的压缩
+     * 参数在这里固定下来，之后再修改不会影响已经开始的压缩
+     * 每次订阅有自己的取消标记，取消订阅的时候通知正在压缩的图片
+     */
+    private Flowable<CompressItem> compressItems() {
+        final List<String> files = new ArrayList<>(this.files);
+        final CompressOptions options = new CompressOptions(gear, format, exifPolicy, exifTags, similarity, contentAware);
+        return Flowable.defer(new Callable<Publisher<CompressItem>>() {
+            @Override
+            public Publisher<CompressItem> call() {
+                final CancelToken token = new CancelToken();
+                return compressItems(files, options, token)
+                        .doOnCancel(new Action() {
+                            @Override
+                            public void run() {
+                                token.cancel();
+                            }
+                        });
+            }
+        });
+    }
+
+    private Flowable<CompressItem> compressItems(final List<String> files, final CompressOptions options,
+                                                 final CancelToken token) {
+        return Flowable.range(0, files.size())
+                .flatMap(new Function<Integer, Publisher<CompressItem>>() {
+                    @Override
+                    public Publisher<CompressItem> apply(final Integer index) {
+                        return Flowable.fromCallable(new Callable<CompressItem>() {
+                            @Override
+                            public CompressItem call() {
+                                ImageSelectData data = luban.compressItem(files.get(index), options, token);
+                                data.index = index;
+                                return new CompressItem(index, data);
+                            }
+                        }).subscribeOn(CompressExecutor.scheduler());
+                    }
+                }, false, CompressExecutor.getParallelism(), 1);
+    }
+
+    /**
+     * 压缩结果和在选择列表中的位置
+     */
+    private static class CompressItem {
+        final int index;
+        final ImageSelectData data;
+
+        CompressItem(int index, ImageSelectData data) {
+            this.index = index;
+            this.data = data;
+        }
+    }
+}
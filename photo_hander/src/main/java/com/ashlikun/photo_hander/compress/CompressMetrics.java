@@ -0,0 +1,150 @@
+package com.ashlikun.photo_hander.compress;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/11 14:20
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：单张图片的压缩数据
+ * 每个阶段的耗时，编码次数，输入输出的字节数，Bitmap占用的最大内存，是否命中缓存
+ * 通过 {@link OnCompressMetricsListener} 回调，汇总在 {@link CompressStats}
+ */
+public class CompressMetrics {
+    /**
+     * 读取头信息(宽高，EXIF方向)
+     */
+    public static final int STAGE_HEADER = 0;
+    /**
+     * 解码像素
+     */
+    public static final int STAGE_DECODE = 1;
+    /**
+     * 缩放和旋转
+     */
+    public static final int STAGE_TRANSFORM = 2;
+    /**
+     * 编码，包括查找质量的多次编码
+     */
+    public static final int STAGE_ENCODE = 3;
+    /**
+     * 写文件
+     */
+    public static final int STAGE_WRITE = 4;
+    /**
+     * 判断内容是照片还是图形，用解码好的图片缩小之后统计，只有开启内容判断的才有
+     */
+    public static final int STAGE_CLASSIFY = 5;
+    public static final int STAGE_COUNT = 6;
+
+    static final String[] STAGE_NAMES = {"header", "decode", "transform", "encode", "write", "classify"};
+
+    /**
+     * 原图路径
+     */
+    public final String path;
+    /**
+     * 压缩等级
+     */
+    public final int gear;
+    /**
+     * 每个阶段的耗时，纳秒，下标为 STAGE_*，没有执行的阶段为0
+     */
+    public final long[] stageNanos = new long[STAGE_COUNT];
+    /**
+     * 总耗时，纳秒，包括等待同一张图片的其他压缩
+     */
+    public long totalNanos;
+    /**
+     * 编码次数
+     */
+    public int encodeCount;
+    /**
+     * 最终的编码质量
+     */
+    public int quality;
+    /**
+     * 按照相似度压缩时结果的相似度(SSIM)，其他为-1
+     */
+    public double similarity = -1;
+    /**
+     * 内容类型 {@link Luban#CONTENT_PHOTO} 等，没有判断为 {@link Luban#CONTENT_UNKNOWN}
+     */
+    public int contentType = Luban.CONTENT_UNKNOWN;
+    /**
+     * 结果的类型 {@link com.ashlikun.photo_hander.utils.ImageHeader#MIME_JPEG} 等，直接使用原图的是读取文件头得到的类型
+     */
+    public String mimeType;
+    /**
+     * 原图字节数
+     */
+    public long inputBytes;
+    /**
+     * 结果字节数
+     */
+    public long outputBytes;
+    /**
+     * 同时存在的Bitmap最多占用的字节数
+     */
+    public long peakBitmapBytes;
+    /**
+     * 命中压缩缓存
+     */
+    public boolean cacheHit;
+    /**
+     * 原图已经满足要求，没有解码
+     */
+    public boolean skipped;
+    /**
+     * 是否成功
+     */
+    public boolean success;
+    /**
+     * 压缩过程中被取消
+     */
+    public boolean cancelled;
+
+    CompressMetrics(String path, int gear) {
+        this.path = path;
+        this.gear = gear;
+    }
+
+    /**
+     * 记录一个阶段的耗时
+     *
+     * @param startNanos 阶段开始时的 {@link System#nanoTime()}
+     */
+    void endStage(int stage, long startNanos) {
+        stageNanos[stage] += System.nanoTime() - startNanos;
+    }
+
+    public long getStageMillis(int stage) {
+        return stageNanos[stage] / 1000000;
+    }
+
+    public long getTotalMillis() {
+        return totalNanos / 1000000;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("CompressMetrics[");
+        sb.append(path).append(",gear=").append(gear)
+                .append(",total=").append(getTotalMillis()).append("ms");
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            sb.append(',').append(STAGE_NAMES[i]).append('=').append(getStageMillis(i)).append("ms");
+        }
+        sb.append(",encodes=").append(encodeCount)
+                .append(",quality=").append(quality)
+                .append(",ssim=").append(similarity)
+                .append(",content=").append(contentType)
+                .append(",in=").append(inputBytes)
+                .append(",out=").append(outputBytes)
+                .append(",peakBitmap=").append(peakBitmapBytes)
+                .append(",cacheHit=").append(cacheHit)
+                .append(",skipped=").append(skipped)
+                .append(",success=").append(success)
+                .append(",cancelled=").append(cancelled)
+                .append(']');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,57 @@
+package com.ashlikun.photo_hander.compress;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/13 10:40
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：一次压缩的参数
+ * {@link CompressJob} 开始压缩的时候复制一份，压缩过程中不会改变
+ */
+class CompressOptions {
+    final int gear;
+    final int format;
+    final int exifPolicy;
+    /**
+     * {@link Luban#EXIF_KEEP_WHITELIST} 保留的标签，null为默认
+     */
+    final String[] exifTags;
+    /**
+     * {@link Luban#QUALITY_GEAR} 的相似度阈值
+     */
+    final float similarity;
+    /**
+     * 按照内容(照片，截图)选择格式、质量和尺寸
+     */
+    final boolean contentAware;
+
+    CompressOptions(int gear, int format, int exifPolicy, String[] exifTags, float similarity,
+                    boolean contentAware) {
+        this.gear = gear;
+        this.format = format;
+        this.exifPolicy = exifPolicy;
+        this.exifTags = exifTags == null ? null : exifTags.clone();
+        this.similarity = similarity;
+        this.contentAware = contentAware;
+    }
+
+    /**
+     * 影响压缩结果的参数，作为缓存key的一部分
+     */
+    String variant() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(gear).append('|').append(format).append('|').append(exifPolicy);
+        if (gear == Luban.QUALITY_GEAR) {
+            sb.append('|').append(similarity);
+        }
+        if (contentAware) {
+            sb.append("|content");
+        }
+        if (exifPolicy == Luban.EXIF_KEEP_WHITELIST && exifTags != null) {
+            for (String tag : exifTags) {
+                sb.append('|').append(tag);
+            }
+        }
+        return sb.toString();
+    }
+}
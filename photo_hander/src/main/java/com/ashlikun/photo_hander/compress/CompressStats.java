@@ -0,0 +1,272 @@
+package com.ashlikun.photo_hander.compress;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/11 14:40
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：压缩数据的汇总
+ * 每个阶段的耗时直方图，编码次数分布，字节数，缓存命中和跳过的数量
+ * {@link #toString()} 可以直接打印到日志
+ */
+public class CompressStats {
+    /**
+     * 编码次数分布的最大值，超过的算在最后一个
+     */
+    private static final int MAX_ENCODE_COUNT = 10;
+
+    private final Histogram[] stages = new Histogram[CompressMetrics.STAGE_COUNT];
+    private final Histogram total = new Histogram();
+    private final long[] encodeCounts = new long[MAX_ENCODE_COUNT + 1];
+    private long imageCount;
+    private long successCount;
+    private long cacheHitCount;
+    private long skipCount;
+    private long cancelCount;
+    private long inputBytes;
+    private long outputBytes;
+    private long maxPeakBitmapBytes;
+
+    CompressStats() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new Histogram();
+        }
+    }
+
+    synchronized void record(CompressMetrics metrics) {
+        if (metrics.cancelled) {
+            //取消的耗时不完整，不计入直方图
+            cancelCount++;
+            return;
+        }
+        imageCount++;
+        total.add(metrics.totalNanos);
+        if (metrics.success) {
+            successCount++;
+            inputBytes += metrics.inputBytes;
+            outputBytes += metrics.outputBytes;
+        }
+        if (metrics.cacheHit) {
+            cacheHitCount++;
+            return;
+        }
+        if (metrics.skipped) {
+            skipCount++;
+        }
+        for (int i = 0; i < stages.length; i++) {
+            if (metrics.stageNanos[i] > 0) {
+                stages[i].add(metrics.stageNanos[i]);
+            }
+        }
+        if (metrics.encodeCount > 0) {
+            encodeCounts[Math.min(metrics.encodeCount, MAX_ENCODE_COUNT)]++;
+        }
+        maxPeakBitmapBytes = Math.max(maxPeakBitmapBytes, metrics.peakBitmapBytes);
+    }
+
+    /**
+     * 阶段的耗时直方图，只统计执行过这个阶段的图片
+     *
+     * @param stage {@link CompressMetrics#STAGE_HEADER} 等
+     */
+    public synchronized Histogram getStage(int stage) {
+        return stages[stage].copy();
+    }
+
+    /**
+     * 单张图片总耗时的直方图
+     */
+    public synchronized Histogram getTotal() {
+        return total.copy();
+    }
+
+    public synchronized long getImageCount() {
+        return imageCount;
+    }
+
+    public synchronized long getSuccessCount() {
+        return successCount;
+    }
+
+    public synchronized long getCacheHitCount() {
+        return cacheHitCount;
+    }
+
+    /**
+     * 原图已经满足要求，没有解码的数量
+     */
+    public synchronized long getSkipCount() {
+        return skipCount;
+    }
+
+    /**
+     * 压缩过程中被取消的数量，不计入其他数据
+     */
+    public synchronized long getCancelCount() {
+        return cancelCount;
+    }
+
+    public synchronized long getInputBytes() {
+        return inputBytes;
+    }
+
+    public synchronized long getOutputBytes() {
+        return outputBytes;
+    }
+
+    public synchronized long getMaxPeakBitmapBytes() {
+        return maxPeakBitmapBytes;
+    }
+
+    /**
+     * 清空数据
+     */
+    public synchronized void reset() {
+        for (Histogram stage : stages) {
+            stage.clear();
+        }
+        total.clear();
+        for (int i = 0; i < encodeCounts.length; i++) {
+            encodeCounts[i] = 0;
+        }
+        imageCount = 0;
+        successCount = 0;
+        cacheHitCount = 0;
+        skipCount = 0;
+        cancelCount = 0;
+        inputBytes = 0;
+        outputBytes = 0;
+        maxPeakBitmapBytes = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("CompressStats\n");
+        sb.append("images=").append(imageCount)
+                .append(" success=").append(successCount)
+                .append(" cacheHit=").append(cacheHitCount)
+                .append(" skipped=").append(skipCount)
+                .append(" cancelled=").append(cancelCount)
+                .append('\n');
+        sb.append("bytes in=").append(inputBytes)
+                .append(" out=").append(outputBytes);
+        if (inputBytes > 0) {
+            sb.append(" ratio=").append(outputBytes * 100 / inputBytes).append('%');
+        }
+        sb.append(" maxPeakBitmap=").append(maxPeakBitmapBytes).append('\n');
+        sb.append("total     ").append(total).append('\n');
+        for (int i = 0; i < stages.length; i++) {
+            sb.append(String.format("%-10s", CompressMetrics.STAGE_NAMES[i])).append(stages[i]).append('\n');
+        }
+        sb.append("encodes  ");
+        for (int i = 1; i < encodeCounts.length; i++) {
+            if (encodeCounts[i] > 0) {
+                sb.append(' ').append(i).append(i == MAX_ENCODE_COUNT ? "+" : "").append(':').append(encodeCounts[i]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 耗时直方图，按照2的幂次毫秒分桶：[0,1) [1,2) [2,4) ... [2^(n-2), ∞)
+     */
+    public static class Histogram {
+        private static final int BUCKET_COUNT = 16;
+
+        private final long[] buckets = new long[BUCKET_COUNT];
+        private long count;
+        private long sumNanos;
+        private long maxNanos;
+
+        Histogram() {
+        }
+
+        void add(long nanos) {
+            long millis = nanos / 1000000;
+            int bucket = millis <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(millis);
+            buckets[Math.min(bucket, BUCKET_COUNT - 1)]++;
+            count++;
+            sumNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        void clear() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = 0;
+            }
+            count = 0;
+            sumNanos = 0;
+            maxNanos = 0;
+        }
+
+        Histogram copy() {
+            Histogram copy = new Histogram();
+            System.arraycopy(buckets, 0, copy.buckets, 0, buckets.length);
+            copy.count = count;
+            copy.sumNanos = sumNanos;
+            copy.maxNanos = maxNanos;
+            return copy;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMeanMillis() {
+            return count == 0 ? 0 : sumNanos / count / 1000000;
+        }
+
+        public long getMaxMillis() {
+            return maxNanos / 1000000;
+        }
+
+        /**
+         * 百分位数的估计值，返回所在桶的上界，毫秒
+         *
+         * @param percent 0-100
+         */
+        public long getPercentileMillis(int percent) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percent / 100.0 * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundMillis(i), getMaxMillis());
+                }
+            }
+            return getMaxMillis();
+        }
+
+        /**
+         * 每个桶的数量，下标i的桶范围为 [2^(i-1), 2^i) 毫秒，0号桶为 [0,1)
+         */
+        public long[] getBuckets() {
+            return buckets.clone();
+        }
+
+        private static long upperBoundMillis(int bucket) {
+            return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << bucket);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("n=").append(count)
+                    .append(" mean=").append(getMeanMillis())
+                    .append(" p50=").append(getPercentileMillis(50))
+                    .append(" p90=").append(getPercentileMillis(90))
+                    .append(" p99=").append(getPercentileMillis(99))
+                    .append(" max=").append(getMaxMillis())
+                    .append("ms |");
+            for (int i = 0; i < buckets.length; i++) {
+                if (buckets[i] > 0) {
+                    sb.append(" <").append(i == BUCKET_COUNT - 1 ? "∞" : String.valueOf(1L << i)).append(':').append(buckets[i]);
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
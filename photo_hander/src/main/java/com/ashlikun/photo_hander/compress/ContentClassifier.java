@@ -0,0 +1,127 @@
+package com.ashlikun.photo_hander.compress;
+
+import android.graphics.Bitmap;
+
+import java.util.Arrays;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/13 17:20
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：判断图片内容是照片还是截图、文档一类的图形
+ * 用压缩时解码的图片缩小到长边 {@link #SAMPLE_SIDE} 左右，统计颜色数和相邻像素的差值
+ * 图形：颜色集中在少数几种，大片纯色，边缘锐利
+ * 照片：颜色分散，相邻像素有噪点，很少完全相同
+ */
+class ContentClassifier {
+    /**
+     * 统计用的小图的长边，不超过 2*SAMPLE_SIDE 的直接统计
+     */
+    static final int SAMPLE_SIDE = 256;
+    /**
+     * RGB各取高4位，4096种颜色
+     */
+    private static final int COLOR_BINS = 1 << 12;
+    /**
+     * 覆盖这个比例的像素需要的颜色数
+     */
+    private static final float COLOR_COVERAGE = 0.9f;
+    /**
+     * 相邻像素亮度差不超过这个值算平坦
+     */
+    private static final int FLAT_DELTA = 2;
+    /**
+     * 相邻像素亮度差超过这个值算边缘
+     */
+    private static final int EDGE_DELTA = 48;
+
+    private ContentClassifier() {
+    }
+
+    /**
+     * 用压缩时已经解码的图片判断，先缩小到长边 {@link #SAMPLE_SIDE} 再统计，不再打开文件解码
+     *
+     * @return {@link Luban#CONTENT_PHOTO} 或者 {@link Luban#CONTENT_GRAPHIC}，图片太小返回 {@link Luban#CONTENT_UNKNOWN}
+     */
+    static int classify(Bitmap bitmap) {
+        int longSide = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longSide <= SAMPLE_SIDE * 2) {
+            return classifySample(bitmap);
+        }
+        float scale = SAMPLE_SIDE / (float) longSide;
+        Bitmap sample = Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+        try {
+            return classifySample(sample);
+        } finally {
+            if (sample != bitmap) {
+                sample.recycle();
+            }
+        }
+    }
+
+    private static int classifySample(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (width < 2 || height < 2) {
+            return Luban.CONTENT_UNKNOWN;
+        }
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+
+        int[] histogram = new int[COLOR_BINS];
+        int flat = 0;
+        int edges = 0;
+        int pairs = 0;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            int previous = luma(pixels[row]);
+            histogram[bin(pixels[row])]++;
+            for (int x = 1; x < width; x++) {
+                int p = pixels[row + x];
+                histogram[bin(p)]++;
+                int current = luma(p);
+                int delta = Math.abs(current - previous);
+                if (delta <= FLAT_DELTA) {
+                    flat++;
+                } else if (delta >= EDGE_DELTA) {
+                    edges++;
+                }
+                pairs++;
+                previous = current;
+            }
+        }
+        int colors = dominantColors(histogram, pixels.length);
+        float flatRatio = flat / (float) pairs;
+        float edgeRatio = edges / (float) pairs;
+        //文字：大片纯色背景 + 锐利的笔画；图表、界面：颜色很少
+        boolean graphic = (colors <= 64 && flatRatio >= 0.5f)
+                || (colors <= 256 && flatRatio >= 0.6f && edgeRatio >= 0.02f);
+        return graphic ? Luban.CONTENT_GRAPHIC : Luban.CONTENT_PHOTO;
+    }
+
+    /**
+     * 覆盖 {@link #COLOR_COVERAGE} 像素需要的颜色数
+     */
+    private static int dominantColors(int[] histogram, int total) {
+        int[] counts = histogram.clone();
+        Arrays.sort(counts);
+        long covered = 0;
+        long need = (long) Math.ceil(total * COLOR_COVERAGE);
+        int colors = 0;
+        for (int i = counts.length - 1; i >= 0 && covered < need; i--) {
+            covered += counts[i];
+            colors++;
+        }
+        return colors;
+    }
+
+    private static int bin(int p) {
+        return ((p >> 12) & 0xF00) | ((p >> 8) & 0xF0) | ((p >> 4) & 0xF);
+    }
+
+    private static int luma(int p) {
+        return (299 * ((p >> 16) & 0xFF) + 587 * ((p >> 8) & 0xFF) + 114 * (p & 0xFF)) / 1000;
+    }
+}
@@ -0,0 +1,56 @@
+package com.ashlikun.photo_hander.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/3 14:20
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：可以复用的编码缓冲区
+ * 直接暴露内部数组，获取长度和写文件的时候不需要 toByteArray 拷贝
+ * 编码的结果直接从内部数组写到 {@link FileChannel}
+ */
+class EncodeBuffer extends ByteArrayOutputStream {
+
+    EncodeBuffer(int size) {
+        super(size);
+    }
+
+    /**
+     * 内部数组，有效数据长度为 {@link #size()}
+     */
+    byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * 当前分配的容量
+     */
+    int capacity() {
+        return buf.length;
+    }
+
+    /**
+     * 编码之前预留容量，防止编码过程中多次扩容拷贝
+     * 只在空的时候扩容，不需要拷贝旧数据
+     */
+    void ensureCapacity(int capacity) {
+        if (count == 0 && buf.length < capacity) {
+            buf = new byte[capacity];
+        }
+    }
+
+    /**
+     * 有效数据全部写到文件
+     */
+    void writeTo(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(buf, 0, count);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
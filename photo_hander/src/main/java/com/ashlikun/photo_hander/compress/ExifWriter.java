@@ -0,0 +1,116 @@
+package com.ashlikun.photo_hander.compress;
+
+import android.media.ExifInterface;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/13 10:15
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：把原图的EXIF按照策略写到压缩结果
+ * 只支持JPEG输出，在临时文件重命名之前写入
+ * 和裁剪的 CropUtil.copyExifRotation 一样使用 {@link ExifInterface}
+ */
+class ExifWriter {
+    /**
+     * 默认保留的标签：拍摄时间，设备，GPS
+     */
+    static final String[] DEFAULT_TAGS = {
+            ExifInterface.TAG_DATETIME,
+            "DateTimeOriginal",
+            "DateTimeDigitized",
+            ExifInterface.TAG_MAKE,
+            ExifInterface.TAG_MODEL,
+            ExifInterface.TAG_GPS_LATITUDE,
+            ExifInterface.TAG_GPS_LATITUDE_REF,
+            ExifInterface.TAG_GPS_LONGITUDE,
+            ExifInterface.TAG_GPS_LONGITUDE_REF,
+            ExifInterface.TAG_GPS_ALTITUDE,
+            ExifInterface.TAG_GPS_ALTITUDE_REF,
+            ExifInterface.TAG_GPS_TIMESTAMP,
+            ExifInterface.TAG_GPS_DATESTAMP,
+    };
+
+    private final String sourcePath;
+    private final String[] tags;
+    private final int orientationDegrees;
+
+    /**
+     * @param sourcePath         原图
+     * @param tags               需要复制的标签，方向标签单独处理
+     * @param orientationDegrees 需要写入的旋转角度，像素已经旋转的传0
+     */
+    private ExifWriter(String sourcePath, String[] tags, int orientationDegrees) {
+        this.sourcePath = sourcePath;
+        this.tags = tags;
+        this.orientationDegrees = orientationDegrees;
+    }
+
+    /**
+     * 根据策略创建
+     *
+     * @param policy       {@link Luban#EXIF_STRIP_ALL} 等
+     * @param tags         {@link Luban#EXIF_KEEP_WHITELIST} 保留的标签，null为默认
+     * @param format       输出格式，不是JPEG的不写
+     * @param keepRotation 像素不旋转，只写方向标签
+     * @param rotation     原图的旋转角度
+     * @return 不需要写入的时候返回null
+     */
+    static ExifWriter create(String sourcePath, int policy, String[] tags, OutputFormat format,
+                             boolean keepRotation, int rotation) {
+        if (format != OutputFormat.JPEG) {
+            return null;
+        }
+        if (policy == Luban.EXIF_KEEP_WHITELIST) {
+            return new ExifWriter(sourcePath, tags != null ? tags : DEFAULT_TAGS, keepRotation ? rotation : 0);
+        }
+        if (policy == Luban.EXIF_KEEP_ORIENTATION && keepRotation && rotation % 360 != 0) {
+            return new ExifWriter(sourcePath, new String[0], rotation);
+        }
+        return null;
+    }
+
+    /**
+     * 策略是否允许跳过像素旋转，只有JPEG可以写EXIF
+     */
+    static boolean canKeepRotation(int policy, OutputFormat format) {
+        return policy == Luban.EXIF_KEEP_ORIENTATION && format == OutputFormat.JPEG;
+    }
+
+    /**
+     * 写入到压缩结果
+     */
+    void writeTo(File output) throws IOException {
+        ExifInterface dest = new ExifInterface(output.getAbsolutePath());
+        if (tags.length > 0) {
+            ExifInterface source = new ExifInterface(sourcePath);
+            for (String tag : tags) {
+                if (ExifInterface.TAG_ORIENTATION.equals(tag)) {
+                    continue;
+                }
+                String value = source.getAttribute(tag);
+                if (value != null) {
+                    dest.setAttribute(tag, value);
+                }
+            }
+        }
+        dest.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(toOrientation(orientationDegrees)));
+        dest.saveAttributes();
+    }
+
+    private static int toOrientation(int degrees) {
+        switch ((degrees % 360 + 360) % 360) {
+            case 90:
+                return ExifInterface.ORIENTATION_ROTATE_90;
+            case 180:
+                return ExifInterface.ORIENTATION_ROTATE_180;
+            case 270:
+                return ExifInterface.ORIENTATION_ROTATE_270;
+            default:
+                return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.ashlikun.photo_hander.compress;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/11 9:30
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：压缩等级的尺寸计算
+ * 根据原图宽高和文件大小计算压缩后的宽高和期望大小，只有计算，不依赖Android
+ * 可以直接在JVM上跑基准测试，见 luban_benchmark 模块
+ */
+class GearPlanner {
+
+    /**
+     * 图形保留的短边，1440 是常见手机屏幕的宽度
+     */
+    static final int GRAPHIC_SHORT_SIDE = 1440;
+
+    private GearPlanner() {
+    }
+
+    /**
+     * 计算结果
+     */
+    static final class Target {
+        /**
+         * 不需要压缩，直接使用原图
+         */
+        static final Target ORIGINAL = new Target(0, 0, 0);
+
+        /**
+         * 压缩后的宽高，只表示长短边，方向不一定和原图一致
+         */
+        final int width;
+        final int height;
+        /**
+         * 期望大小 kb
+         */
+        final long size;
+
+        Target(int width, int height, long size) {
+            this.width = width;
+            this.height = height;
+            this.size = size;
+        }
+
+        boolean isOriginal() {
+            return this == ORIGINAL;
+        }
+
+        @Override
+        public String toString() {
+            return isOriginal() ? "Target[original]" : "Target[" + width + "x" + height + "," + size + "kb]";
+        }
+    }
+
+    /**
+     * 3级压缩,高，一般在100-400kb
+     *
+     * @param width      原图宽
+     * @param height     原图高
+     * @param fileLength 原图文件大小，字节
+     */
+    static Target third(int width, int height, long fileLength) {
+        double size;//期望大小  kb
+        int thumbW = width % 2 == 1 ? width + 1 : width;
+        int thumbH = height % 2 == 1 ? height + 1 : height;
+
+        //一直保证width比height小，   那么除出来的就是  （0,1）
+        width = thumbW > thumbH ? thumbH : thumbW;
+        height = thumbW > thumbH ? thumbW : thumbH;
+
+        //（1，0）
+        double scale = ((double) width / height);
+        //即图片处于 [1:1 ~ 9:16) 比例范围内
+        if (scale <= 1 && scale > 0.5625) {
+            if (height < 1664) {
+                if (fileLength / 1024 < 100) {
+                    //文件大小小于100kb  就不压缩
+                    return Target.ORIGINAL;
+                }
+
+                size = (width * height) / Math.pow(1664, 2) * 100;
+                //希望（60-100）kb
+                size = size < 60 ? 60 : size;
+            } else if (height < 4990) {
+                thumbW = width / 2;
+                thumbH = height / 2;
+                size = (thumbW * thumbH) / Math.pow(2495, 2) * 300;
+                //希望（60-300）kb
+                size = size < 60 ? 60 : size;
+            } else if (height < 10240) {
+                thumbW = width / 4;
+                thumbH = height / 4;
+                size = (thumbW * thumbH) / Math.pow(2560, 2) * 300;
+                //希望（100-300）kb
+                size = size < 100 ? 100 : size;
+            } else {
+                int multiple = height / 1280 == 0 ? 1 : height / 1280;
+                thumbW = width / multiple;
+                thumbH = height / multiple;
+                size = (thumbW * thumbH) / Math.pow(2560, 2) * 300;
+                //希望（100-300）kb
+                size = size < 100 ? 100 : size;
+            }
+        } else if (scale <= 0.5625 && scale > 0.5) {
+            //即图片处于 [9:16 ~ 1:2) 比例范围内
+            if (height < 1280 && fileLength / 1024 < 100) {
+                //文件大小小于100kb  就不压缩
+                return Target.ORIGINAL;
+            }
+            int multiple = height / 1280 == 0 ? 1 : height / 1280;
+            thumbW = width / multiple;
+            thumbH = height / multiple;
+            size = (thumbW * thumbH) / (1440.0 * 2560.0) * 400;
+            //希望（100-400）kb
+            size = size < 100 ? 100 : size;
+        } else {
+            //即图片处于 [1:2 ~ 1:∞) 比例范围内
+            int multiple = (int) Math.ceil(height / (1280.0 / scale));
+            thumbW = width / multiple;
+            thumbH = height / multiple;
+            size = ((thumbW * thumbH) / (1280.0 * (1280 / scale))) * 500;
+            //希望（100-500）kb
+            size = size < 100 ? 100 : size;
+        }
+        return new Target(thumbW, thumbH, (long) size);
+    }
+
+    /**
+     * 截图、文档一类的图形，缩小之后文字看不清
+     * 短边超过 {@link #GRAPHIC_SHORT_SIDE} 的才缩小，不限制大小，由相似度决定质量
+     *
+     * @param width  原图宽
+     * @param height 原图高
+     */
+    static Target graphic(int width, int height) {
+        int shortSide = Math.min(width, height);
+        int longSide = Math.max(width, height);
+        if (shortSide <= GRAPHIC_SHORT_SIDE) {
+            return new Target(shortSide, longSide, 0);
+        }
+        return new Target(GRAPHIC_SHORT_SIDE, (int) ((long) longSide * GRAPHIC_SHORT_SIDE / shortSide), 0);
+    }
+
+    /**
+     * 2级压缩,中，一般在200-1024kb
+     *
+     * @param width      原图宽
+     * @param height     原图高
+     * @param fileLength 原图文件大小，字节
+     */
+    static Target second(int width, int height, long fileLength) {
+        double size;//期望大小  kb
+        int thumbW = width % 2 == 1 ? width + 1 : width;
+        int thumbH = height % 2 == 1 ? height + 1 : height;
+
+        //一直保证width比height小，   那么除出来的就是  （0,1）
+        width = thumbW > thumbH ? thumbH : thumbW;
+        height = thumbW > thumbH ? thumbW : thumbH;
+
+        //（1，0）
+        double scale = ((double) width / height);
+        //即图片处于 [1:1 ~ 9:16) 比例范围内
+        if (scale <= 1 && scale > 0.5625) {
+            if (height < 1664) {
+                if (fileLength / 1024 < 100) {
+                    //文件大小小于100kb  就不压缩
+                    return Target.ORIGINAL;
+                }
+                size = (width * height) / Math.pow(1664, 2) * 300;
+                //希望（200-300）kb
+                size = size < 200 ? 200 : size;
+            } else if (height < 4990) {
+                thumbW = width / 2;
+                thumbH = height / 2;
+                size = (thumbW * thumbH) / Math.pow(2495, 2) * 800;
+                //希望（200-800）kb
+                size = size < 200 ? 200 : size;
+            } else if (height < 10240) {
+                thumbW = width / 4;
+                thumbH = height / 4;
+                size = (thumbW * thumbH) / Math.pow(2560, 2) * 800;
+                //希望（200-800）kb
+                size = size < 200 ? 200 : size;
+            } else {
+                int multiple = height / 1280 == 0 ? 1 : height / 1280;
+                thumbW = width / multiple;
+                thumbH = height / multiple;
+                size = (thumbW * thumbH) / Math.pow(2560, 2) * 800;
+                //希望（200-800）kb
+                size = size < 200 ? 200 : size;
+            }
+        } else if (scale <= 0.5625 && scale > 0.5) {
+            //即图片处于 [9:16 ~ 1:2) 比例范围内
+            if (height < 1280 && fileLength / 1024 < 100) {
+                //文件大小小于100kb  就不压缩
+                return Target.ORIGINAL;
+            }
+            int multiple = height / 1280 == 0 ? 1 : height / 1280;
+            thumbW = width / multiple;
+            thumbH = height / multiple;
+            size = (thumbW * thumbH) / (1440.0 * 2560.0) * 800;
+            //希望（200-800）kb
+            size = size < 200 ? 200 : size;
+        } else {
+            //即图片处于 [1:2 ~ 1:∞) 比例范围内
+            int multiple = (int) Math.ceil(height / (1280.0 / scale));
+            thumbW = width / multiple;
+            thumbH = height / multiple;
+            size = ((thumbW * thumbH) / (1280.0 * (1280 / scale))) * 1024;
+            //希望（200-1024）kb
+            size = size < 200 ? 200 : size;
+        }
+        return new Target(thumbW, thumbH, (long) size);
+    }
+
+    /**
+     * 1级压缩,低,一般在60-文件大小/5
+     *
+     * @param width      原图宽
+     * @param height     原图高
+     * @param fileLength 原图文件大小，字节
+     */
+    static Target first(int width, int height, long fileLength) {
+        int minSize = 60;
+        int longSide = 720;
+        int shortSide = 1280;
+
+        long size = 0;
+        long maxSize = fileLength / 5;
+
+        int thumbW = 0, thumbH = 0;
+        if (width <= height) {
+            double scale = (double) width / (double) height;
+            if (scale <= 1.0 && scale > 0.5625) {
+                thumbW = width > shortSide ? shortSide : width;
+                thumbH = thumbW * height / width;
+                size = minSize;
+            } else if (scale <= 0.5625) {
+                thumbH = height > longSide ? longSide : height;
+                thumbW = thumbH * width / height;
+                size = maxSize;
+            }
+        } else {
+            double scale = (double) height / (double) width;
+            if (scale <= 1.0 && scale > 0.5625) {
+                thumbH = height > shortSide ? shortSide : height;
+                thumbW = thumbH * width / height;
+                size = minSize;
+            } else if (scale <= 0.5625) {
+                thumbW = width > longSide ? longSide : width;
+                thumbH = thumbW * height / width;
+                size = maxSize;
+            }
+        }
+        return new Target(thumbW, thumbH, size);
+    }
+}
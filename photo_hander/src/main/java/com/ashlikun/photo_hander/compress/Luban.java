@@ -3,27 +3,30 @@ package com.ashlikun.photo_hander.compress;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
-import android.media.ExifInterface;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.RectF;
+import android.os.Build;
 import android.support.annotation.NonNull;
 
 import com.ashlikun.photo_hander.bean.ImageSelectData;
+import com.ashlikun.photo_hander.utils.DecodeScheduler;
+import com.ashlikun.photo_hander.utils.ImageHeader;
 import com.ashlikun.photo_hander.utils.PhotoHanderUtils;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.util.List;
-
-import io.reactivex.Observable;
-import io.reactivex.ObservableEmitter;
-import io.reactivex.ObservableOnSubscribe;
-import io.reactivex.android.schedulers.AndroidSchedulers;
-import io.reactivex.functions.Action;
-import io.reactivex.functions.Consumer;
-import io.reactivex.schedulers.Schedulers;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -79,28 +82,113 @@ public class Luban {
      * 3级压缩,高，一般在100-400kb
      */
     public static final int THIRD_GEAR = 3;
+    /**
+     * 按照相似度压缩，宽高和 {@link #THIRD_GEAR} 一样
+     * 不限制文件大小，查找和原图的相似度(SSIM)不低于阈值的最低质量
+     */
+    public static final int QUALITY_GEAR = 4;
+    /**
+     * {@link #QUALITY_GEAR} 默认的相似度阈值
+     */
+    public static final float DEFAULT_SIMILARITY = 0.95f;
+    /**
+     * 截图、文档有损编码时的相似度阈值，文字边缘的噪点比照片明显
+     */
+    public static final float GRAPHIC_SIMILARITY = 0.98f;
+
+    /**
+     * 内容类型：没有判断
+     */
+    public static final int CONTENT_UNKNOWN = 0;
+    /**
+     * 内容类型：照片
+     */
+    public static final int CONTENT_PHOTO = 1;
+    /**
+     * 内容类型：截图、文档一类的图形
+     */
+    public static final int CONTENT_GRAPHIC = 2;
+
+    /**
+     * 输出JPEG
+     */
+    public static final int FORMAT_JPEG = 0;
+    /**
+     * 输出有损WEBP，4.3以下输出JPEG
+     */
+    public static final int FORMAT_WEBP = 1;
+    /**
+     * 输出无损WEBP，适合截图，期望大小不起作用，10.0以下没有无损WEBP输出PNG，4.3以下输出JPEG
+     */
+    public static final int FORMAT_WEBP_LOSSLESS = 2;
+    /**
+     * 根据原图自动选择，PNG、GIF用无损WEBP(1级压缩和10.0以下用有损)，其他用有损WEBP
+     */
+    public static final int FORMAT_AUTO = 3;
+
+    /**
+     * 去掉所有EXIF，旋转在像素上完成
+     */
+    public static final int EXIF_STRIP_ALL = 0;
+    /**
+     * 旋转在像素上完成，保留白名单的标签(默认拍摄时间、设备、GPS)，只对JPEG输出有效
+     */
+    public static final int EXIF_KEEP_WHITELIST = 1;
+    /**
+     * 像素不旋转，只写方向标签，不需要分配旋转用的第二张图片，只对JPEG输出有效，其他格式还是旋转像素
+     */
+    public static final int EXIF_KEEP_ORIENTATION = 2;
 
     /**
      * 缓存文件大于100个自动删除
+     *
+     * @deprecated 缓存按照 {@link CompressCache#DEFAULT_MAX_SIZE} 的大小LRU删除
      */
+    @Deprecated
     public static final int MAX_SAVE_FILS = 300;
 
-    private static final String DEFAULT_DISK_CACHE_DIR = "luban_disk_cache";
+    /**
+     * 写完之后不同步到磁盘，进程被杀不影响，断电可能丢失最近的结果
+     */
+    public static final int SYNC_NONE = 0;
+    /**
+     * 每个结果重命名之前同步到磁盘，断电也不会留下不完整的文件，写入会慢一些
+     */
+    public static final int SYNC_FILE = 1;
 
-    private static volatile Luban INSTANCE;
+    private static final String DEFAULT_DISK_CACHE_DIR = "luban_disk_cache";
+    /**
+     * 正在写入的临时文件后缀，写完之后重命名
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
 
-    private final File mCacheDir;
+    /**
+     * 等待内存预算或者等待同一张图片的其他任务的时候，每隔这么久检查一次是否取消
+     */
+    private static final long BUDGET_WAIT_MS = 200;
 
-    private OnCompressListener compressListener;
-    private int gear = THIRD_GEAR;
-    private ArrayList<String> mFiles = new ArrayList<>();
-    private ArrayList<ImageSelectData> compressFiles = new ArrayList<ImageSelectData>();
+    private static volatile Luban INSTANCE;
 
-    private Luban(File cacheDir) {
-        mCacheDir = cacheDir;
+    private final CompressCache mCache;
+    private final DecodeScheduler decodeScheduler;
+    /**
+     * 正在压缩的缓存key，同一张图片同时被多个任务压缩的时候，只让一个任务压缩写缓存，其他的等它完成之后读缓存
+     * 只按照key排队，不同的图片互不影响
+     */
+    private final ConcurrentHashMap<String, CountDownLatch> inFlight = new ConcurrentHashMap<>();
+    private final CompressStats stats = new CompressStats();
+    private volatile OnCompressMetricsListener metricsListener;
+    private volatile int syncPolicy = SYNC_NONE;
+
+    private Luban(File cacheDir, DecodeScheduler decodeScheduler) {
+        mCache = cacheDir == null ? null : CompressCache.open(cacheDir);
+        this.decodeScheduler = decodeScheduler;
     }
 
 
+    /**
+     * 清空压缩缓存
+     */
     public static void deleteDir(Context context) {
         File cacheDir = getCacheDir(context);
         deleteDir(cacheDir);
@@ -108,14 +196,18 @@ public class Luban {
 
     public static void deleteDir(File cacheDir) {
         if (cacheDir != null) {
-            if (cacheDir.exists()) {
-                if (getFiles(cacheDir) > MAX_SAVE_FILS) {
-                    cacheDir.delete();
-                }
-            }
+            CompressCache.open(cacheDir).clear();
         }
     }
 
+    /**
+     * 获取压缩缓存，可以查看命中率，设置缓存大小
+     */
+    public static CompressCache getCache(Context context) {
+        File cacheDir = getCacheDir(context);
+        return cacheDir == null ? null : CompressCache.open(cacheDir);
+    }
+
 
     /**
      * 获取luban的缓存目录
@@ -136,129 +228,186 @@ public class Luban {
     }
 
 
+    /**
+     * 获取压缩引擎，全局一个实例，持有共用的缓存
+     * 每次 {@link #load(List)} 返回独立的压缩任务
+     */
     public static Luban get(Context context) {
         if (INSTANCE == null) {
-            INSTANCE = new Luban(Luban.getCacheDir(context));
+            synchronized (Luban.class) {
+                if (INSTANCE == null) {
+                    Context app = context.getApplicationContext();
+                    INSTANCE = new Luban(Luban.getCacheDir(app), DecodeScheduler.get(app));
+                }
+            }
         }
         return INSTANCE;
     }
 
-    public Luban launch() {
-
-        if (compressListener != null) {
-            compressListener.onStart();
-        }
-
-        Observable.create(new ObservableOnSubscribe<Integer>() {
-            @Override
-            public void subscribe(ObservableEmitter<Integer> e) throws Exception {
-                deleteDir(mCacheDir);
-                compressFiles.clear();
-                for (String f : mFiles) {
-                    if (!PhotoHanderUtils.isHttpImg(f)) {
-                        try {
-                            File ff = compress(f);
-                            if (ff != null && ff.exists()) {
-                                compressFiles.add(new ImageSelectData(f, ff.getPath()));
-                                int progress = mFiles.indexOf(f) + 1;
-                                e.onNext(progress);
-                            } else {
-                                //压缩失败
-                                compressFiles.add(new ImageSelectData(f, f, true));
-                                int progress = mFiles.indexOf(f) + 1;
-                                e.onNext(progress);
-                            }
-                        } catch (Exception e1) {
-                            compressFiles.add(new ImageSelectData(f, f, true));
-                            int progress = mFiles.indexOf(f) + 1;
-                            e.onNext(progress);
-                        }
-
-                    } else {
-                        //如果是网络图直接跳过
-                        compressFiles.add(new ImageSelectData(f));
-                    }
-                }
-                e.onComplete();
+    /**
+     * 压缩单张图片，在压缩线程执行
+     * 网络图直接跳过，压缩失败返回原图并标记失败
+     */
+    ImageSelectData compressItem(String f, CompressOptions options, CancelToken token) {
+        if (PhotoHanderUtils.isHttpImg(f)) {
+            //如果是网络图直接跳过
+            return new ImageSelectData(f);
+        }
+        CompressMetrics metrics = new CompressMetrics(f, options.gear);
+        long start = System.nanoTime();
+        try {
+            token.throwIfCancelled();
+            File ff = compress(f, options, metrics, token);
+            if (ff != null && ff.exists()) {
+                metrics.success = true;
+                metrics.outputBytes = ff.length();
+                ImageSelectData data = new ImageSelectData(f, ff.getPath());
+                data.mimeType = metrics.mimeType;
+                data.contentType = metrics.contentType;
+                return data;
             }
-        }).subscribeOn(Schedulers.io())
-                .observeOn(AndroidSchedulers.mainThread())
-                .doOnError(new Consumer<Throwable>() {
-                    @Override
-                    public void accept(Throwable throwable) {
-                        if (compressListener != null) {
-                            compressListener.onError(throwable);
-                        }
-                        compressListener = null;
-                    }
-                })
-                .doOnComplete(new Action() {
-                    @Override
-                    public void run() throws Exception {
-                        if (compressListener != null) {
-                            compressListener.onSuccess(compressFiles);
-                        }
-                        compressListener = null;
-                    }
-                })
-                .subscribe(new Consumer<Integer>() {
-                    @Override
-                    public void accept(Integer progress) {
-                        if (compressListener != null) {
-                            compressListener.onLoading(progress, mFiles.size());
-                        }
-                    }
-                });
+        } catch (CancellationException e) {
+            //已经取消，结果不会再使用
+            metrics.cancelled = true;
+        } catch (Exception e) {
+            e.printStackTrace();
+        } catch (OutOfMemoryError e) {
+            e.printStackTrace();
+        } finally {
+            metrics.totalNanos = System.nanoTime() - start;
+            reportMetrics(metrics);
+        }
+        //压缩失败
+        return new ImageSelectData(f, f, true);
+    }
 
+    private void reportMetrics(CompressMetrics metrics) {
+        stats.record(metrics);
+        OnCompressMetricsListener listener = metricsListener;
+        if (listener != null) {
+            try {
+                listener.onImageCompressed(metrics);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
+    /**
+     * 设置每张图片压缩数据的回调，在压缩线程调用
+     *
+     * @param listener null 取消
+     */
+    public Luban setMetricsListener(OnCompressMetricsListener listener) {
+        metricsListener = listener;
         return this;
     }
 
     /**
-     * 作者　　: 李坤
-     * 创建时间: 2016/9/8 10:05
-     * <p>
-     * 方法功能：放入待压缩的图片文件集合
+     * 压缩结果写入磁盘的同步策略
+     * {@link #SYNC_NONE} 默认
+     * {@link #SYNC_FILE}
      */
-    public Luban load(List<String> file) {
-        mFiles.clear();
-        mFiles.addAll(file);
+    public Luban setSyncPolicy(int syncPolicy) {
+        this.syncPolicy = syncPolicy;
         return this;
     }
 
+    /**
+     * 所有压缩的汇总数据，每个阶段的耗时直方图等
+     * 打印 {@link CompressStats#toString()} 可以看到慢在哪个阶段
+     */
+    public CompressStats getStats() {
+        return stats;
+    }
 
-    public Luban setCompressListener(OnCompressListener listener) {
-        compressListener = listener;
-        return this;
+    /**
+     * 已经满足压缩要求，没有解码直接使用原图的数量
+     */
+    public long getSkipCount() {
+        return stats.getSkipCount();
     }
 
-    public Luban putGear(int gear) {
-        this.gear = gear;
-        return this;
+    /**
+     * 作者　　: 李坤
+     * 创建时间: 2016/9/8 10:05
+     * <p>
+     * 方法功能：放入待压缩的图片文件集合，创建一个新的压缩任务
+     */
+    public CompressJob load(List<String> file) {
+        return new CompressJob(this, file);
     }
 
 
-    private File compress(@NonNull String file) {
+    private File compress(@NonNull String file, CompressOptions options, CompressMetrics metrics, CancelToken token) {
+        if (mCache == null) {
+            return null;
+        }
         try {
-            //是否存在缓存
-            File tempFile = getTempFile(file);
-            if (tempFile != null) {
-                return tempFile;
-            }
-            File ff = new File(file);
-            if (gear == Luban.THIRD_GEAR) {
-                ff = thirdCompress(ff);
-            } else if (gear == Luban.DOUBLE_GEAR) {
-                ff = doubleCompress(ff);
-            } else if (gear == Luban.FIRST_GEAR) {
-                ff = firstCompress(ff);
-            } else {
-                return null;
-            }
-            if (ff == null) {
-                return null;
+            File source = new File(file);
+            metrics.inputBytes = source.length();
+            //原图路径 + 大小 + 修改时间 + 压缩等级 + 输出格式 + EXIF策略 作为key
+            String key = CompressCache.key(source, options.variant());
+            CountDownLatch claim = claimKey(key, token);
+            try {
+                //是否存在缓存
+                File cacheFile = mCache.get(key);
+                if (cacheFile != null) {
+                    metrics.cacheHit = true;
+                    metrics.contentType = mCache.getContentType(key);
+                    //缓存文件的后缀是编码的时候按照输出格式写的
+                    metrics.mimeType = OutputFormat.mimeTypeOf(cacheFile.getPath());
+                    return cacheFile;
+                }
+                //一次读取宽高和旋转角度，后面不再打开文件解析
+                long start = System.nanoTime();
+                ImageHeader header = ImageHeader.read(file);
+                metrics.endStage(CompressMetrics.STAGE_HEADER, start);
+                token.throwIfCancelled();
+                if (!header.isValid()) {
+                    return null;
+                }
+                //判断内容的时候先按照照片和图形各算一份，解码一次之后用解码的图片判断，再选择其中一份
+                Plan plan = plan(file, source, key, header, options, options.contentAware ? CONTENT_PHOTO : CONTENT_UNKNOWN);
+                if (plan == null) {
+                    return null;
+                }
+                Plan graphicPlan = options.contentAware
+                        ? plan(file, source, key, header, options, CONTENT_GRAPHIC) : null;
+                if (graphicPlan == null && plan.original) {
+                    //和 canSkip 一样没有解码，计入跳过
+                    metrics.skipped = true;
+                    metrics.mimeType = header.mimeType;
+                    return source;
+                }
+                File ff = null;
+                try {
+                    ff = compress(file, header, plan, graphicPlan, metrics, token);
+                } finally {
+                    if (ff == null) {
+                        //取消或者失败，删除写了一半的文件
+                        deletePartial(plan);
+                        deletePartial(graphicPlan);
+                    }
+                }
+                if (ff == null) {
+                    return null;
+                }
+                Plan used = metrics.contentType == CONTENT_GRAPHIC && graphicPlan != null ? graphicPlan : plan;
+                if (ff.equals(source)) {
+                    //原图已经满足要求，后缀不一定对，用文件头的类型
+                    metrics.mimeType = header.mimeType;
+                } else {
+                    metrics.mimeType = used.format.mimeType;
+                    mCache.put(key, used.format.suffix, metrics.contentType);
+                }
+                return ff;
+            } finally {
+                releaseKey(key, claim);
             }
-            return ff;
+        } catch (CancellationException e) {
+            //交给 compressItem 记为取消，不算失败
+            throw e;
         } catch (Exception e) {
             return null;
         }
@@ -266,378 +415,508 @@ public class Luban {
     }
 
     /**
-     * 3级压缩,高，一般在100-400kb
+     * 按照内容类型确定输出格式、尺寸和编码方式
+     *
+     * @param content {@link #CONTENT_GRAPHIC} 按照图形处理，其他按照压缩等级处理
+     * @return 不认识的压缩等级返回null
      */
-    private File thirdCompress(@NonNull File file) {
-        double size;//期望大小  kb
-        String filePath = file.getAbsolutePath();
-        int[] imgSize = getImageSize(filePath);
-        int angle = getImageSpinAngle(filePath);
-        int width = imgSize[0];
-        int height = imgSize[1];
-        int thumbW = width % 2 == 1 ? width + 1 : width;
-        int thumbH = height % 2 == 1 ? height + 1 : height;
-
-        //一直保证width比height小，   那么除出来的就是  （0,1）
-        width = thumbW > thumbH ? thumbH : thumbW;
-        height = thumbW > thumbH ? thumbW : thumbH;
-
-        //（1，0）
-        double scale = ((double) width / height);
-        //即图片处于 [1:1 ~ 9:16) 比例范围内
-        if (scale <= 1 && scale > 0.5625) {
-            if (height < 1664) {
-                if (file.length() / 1024 < 100) {
-                    //文件大小小于100kb  就不压缩
-                    return file;
-                }
-
-                size = (width * height) / Math.pow(1664, 2) * 100;
-                //希望（60-100）kb
-                size = size < 60 ? 60 : size;
-            } else if (height < 4990) {
-                thumbW = width / 2;
-                thumbH = height / 2;
-                size = (thumbW * thumbH) / Math.pow(2495, 2) * 300;
-                //希望（60-300）kb
-                size = size < 60 ? 60 : size;
-            } else if (height < 10240) {
-                thumbW = width / 4;
-                thumbH = height / 4;
-                size = (thumbW * thumbH) / Math.pow(2560, 2) * 300;
-                //希望（100-300）kb
-                size = size < 100 ? 100 : size;
+    private Plan plan(String file, File source, String key, ImageHeader header, CompressOptions options, int content) {
+        int gear = options.gear;
+        boolean graphic = content == CONTENT_GRAPHIC;
+        GearPlanner.Target target;
+        if (graphic) {
+            target = GearPlanner.graphic(header.width, header.height);
+        } else if (gear == Luban.THIRD_GEAR) {
+            target = GearPlanner.third(header.width, header.height, source.length());
+        } else if (gear == Luban.DOUBLE_GEAR) {
+            target = GearPlanner.second(header.width, header.height, source.length());
+        } else if (gear == Luban.FIRST_GEAR) {
+            target = GearPlanner.first(header.width, header.height, source.length());
+        } else if (gear == Luban.QUALITY_GEAR) {
+            target = GearPlanner.third(header.width, header.height, source.length());
+        } else {
+            return null;
+        }
+        boolean original = false;
+        if (target.isOriginal()) {
+            if (header.hasMetadata) {
+                //原图带有EXIF，直接使用会带出GPS等信息，按照原图尺寸重新编码，由EXIF策略决定保留什么
+                target = new GearPlanner.Target(header.width, header.height, Math.max(1, source.length() / 1024));
             } else {
-                int multiple = height / 1280 == 0 ? 1 : height / 1280;
-                thumbW = width / multiple;
-                thumbH = height / multiple;
-                size = (thumbW * thumbH) / Math.pow(2560, 2) * 300;
-                //希望（100-300）kb
-                size = size < 100 ? 100 : size;
+                original = true;
             }
-        } else if (scale <= 0.5625 && scale > 0.5) {
-            //即图片处于 [9:16 ~ 1:2) 比例范围内
-            if (height < 1280 && file.length() / 1024 < 100) {
-                //文件大小小于100kb  就不压缩
-                return file;
-            }
-            int multiple = height / 1280 == 0 ? 1 : height / 1280;
-            thumbW = width / multiple;
-            thumbH = height / multiple;
-            size = (thumbW * thumbH) / (1440.0 * 2560.0) * 400;
-            //希望（100-400）kb
-            size = size < 100 ? 100 : size;
-        } else {
-            //即图片处于 [1:2 ~ 1:∞) 比例范围内
-            int multiple = (int) Math.ceil(height / (1280.0 / scale));
-            thumbW = width / multiple;
-            thumbH = height / multiple;
-            size = ((thumbW * thumbH) / (1280.0 * (1280 / scale))) * 500;
-            //希望（100-500）kb
-            size = size < 100 ? 100 : size;
         }
+        OutputFormat outputFormat = OutputFormat.resolve(options.format, gear, header, content);
+        //保留方向标签的时候像素不旋转，只有JPEG可以写EXIF
+        boolean keepRotation = ExifWriter.canKeepRotation(options.exifPolicy, outputFormat);
+        ExifWriter exif = ExifWriter.create(file, options.exifPolicy, options.exifTags, outputFormat,
+                keepRotation, header.orientation);
+        //按照相似度压缩的不限制大小，也就不会因为大小满足而跳过
+        float similarity = 0;
+        if (graphic) {
+            similarity = gear == Luban.QUALITY_GEAR
+                    ? Math.max(options.similarity, GRAPHIC_SIMILARITY) : GRAPHIC_SIMILARITY;
+        } else if (gear == Luban.QUALITY_GEAR) {
+            similarity = options.similarity;
+        }
+        return new Plan(outputFormat, exif, mCache.getFile(key, outputFormat.suffix).getAbsolutePath(),
+                target.width, target.height, keepRotation ? 0 : header.orientation,
+                similarity > 0 ? 0 : target.size, similarity, original);
+    }
 
-        return compress(filePath, createTempFile(filePath), thumbW, thumbH, angle, (long) size);
+    private static void deletePartial(Plan plan) {
+        if (plan != null) {
+            new File(plan.thumbPath).delete();
+            new File(plan.thumbPath + TEMP_SUFFIX).delete();
+        }
     }
 
     /**
-     * 2级压缩,中，一般在200-1024kb
+     * 一张图片的输出方式
      */
-    private File doubleCompress(@NonNull File file) {
-        double size;//期望大小  kb
-        String filePath = file.getAbsolutePath();
-        int[] imgSize = getImageSize(filePath);
-        int angle = getImageSpinAngle(filePath);
-        int width = imgSize[0];
-        int height = imgSize[1];
-        int thumbW = width % 2 == 1 ? width + 1 : width;
-        int thumbH = height % 2 == 1 ? height + 1 : height;
-
-        //一直保证width比height小，   那么除出来的就是  （0,1）
-        width = thumbW > thumbH ? thumbH : thumbW;
-        height = thumbW > thumbH ? thumbW : thumbH;
-
-        //（1，0）
-        double scale = ((double) width / height);
-        //即图片处于 [1:1 ~ 9:16) 比例范围内
-        if (scale <= 1 && scale > 0.5625) {
-            if (height < 1664) {
-                if (file.length() / 1024 < 100) {
-                    //文件大小小于100kb  就不压缩
-                    return file;
+    private static final class Plan {
+        final OutputFormat format;
+        /**
+         * 需要写入的EXIF，null不写
+         */
+        final ExifWriter exif;
+        final String thumbPath;
+        /**
+         * 压缩后的宽高，只表示长短边
+         */
+        final int width;
+        final int height;
+        /**
+         * 像素需要旋转的角度，保留方向标签的为0
+         */
+        final int angle;
+        /**
+         * 期望大小 kb，按照相似度编码的为0
+         */
+        final long size;
+        final float similarity;
+        /**
+         * 压缩等级认为不需要压缩，并且原图没有元数据，直接使用原图
+         */
+        final boolean original;
+
+        Plan(OutputFormat format, ExifWriter exif, String thumbPath, int width, int height, int angle,
+             long size, float similarity, boolean original) {
+            this.format = format;
+            this.exif = exif;
+            this.thumbPath = thumbPath;
+            this.width = width;
+            this.height = height;
+            this.angle = angle;
+            this.size = size;
+            this.similarity = similarity;
+            this.original = original;
+        }
+    }
+
+    /**
+     * 占用这个key，同一个key有其他任务正在压缩就等它完成，等待的时候检查是否取消
+     *
+     * @return 完成之后交给 {@link #releaseKey}
+     */
+    private CountDownLatch claimKey(String key, CancelToken token) {
+        CountDownLatch claim = new CountDownLatch(1);
+        try {
+            CountDownLatch other;
+            while ((other = inFlight.putIfAbsent(key, claim)) != null) {
+                while (!other.await(BUDGET_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                    token.throwIfCancelled();
                 }
-                size = (width * height) / Math.pow(1664, 2) * 300;
-                //希望（200-300）kb
-                size = size < 200 ? 200 : size;
-            } else if (height < 4990) {
-                thumbW = width / 2;
-                thumbH = height / 2;
-                size = (thumbW * thumbH) / Math.pow(2495, 2) * 800;
-                //希望（200-800）kb
-                size = size < 200 ? 200 : size;
-            } else if (height < 10240) {
-                thumbW = width / 4;
-                thumbH = height / 4;
-                size = (thumbW * thumbH) / Math.pow(2560, 2) * 800;
-                //希望（200-800）kb
-                size = size < 200 ? 200 : size;
-            } else {
-                int multiple = height / 1280 == 0 ? 1 : height / 1280;
-                thumbW = width / multiple;
-                thumbH = height / multiple;
-                size = (thumbW * thumbH) / Math.pow(2560, 2) * 800;
-                //希望（200-800）kb
-                size = size < 200 ? 200 : size;
-            }
-        } else if (scale <= 0.5625 && scale > 0.5) {
-            //即图片处于 [9:16 ~ 1:2) 比例范围内
-            if (height < 1280 && file.length() / 1024 < 100) {
-                //文件大小小于100kb  就不压缩
-                return file;
-            }
-            int multiple = height / 1280 == 0 ? 1 : height / 1280;
-            thumbW = width / multiple;
-            thumbH = height / multiple;
-            size = (thumbW * thumbH) / (1440.0 * 2560.0) * 800;
-            //希望（200-800）kb
-            size = size < 200 ? 200 : size;
-        } else {
-            //即图片处于 [1:2 ~ 1:∞) 比例范围内
-            int multiple = (int) Math.ceil(height / (1280.0 / scale));
-            thumbW = width / multiple;
-            thumbH = height / multiple;
-            size = ((thumbW * thumbH) / (1280.0 * (1280 / scale))) * 1024;
-            //希望（200-1024）kb
-            size = size < 200 ? 200 : size;
-        }
-
-        return compress(filePath, createTempFile(filePath), thumbW, thumbH, angle, (long) size);
-    }
-
-    private File firstCompress(@NonNull File file) {
-        int minSize = 60;
-        int longSide = 720;
-        int shortSide = 1280;
-
-        String filePath = file.getAbsolutePath();
-
-        long size = 0;
-        long maxSize = file.length() / 5;
-
-        int angle = getImageSpinAngle(filePath);
-        int[] imgSize = getImageSize(filePath);
-        int width = 0, height = 0;
-        if (imgSize[0] <= imgSize[1]) {
-            double scale = (double) imgSize[0] / (double) imgSize[1];
-            if (scale <= 1.0 && scale > 0.5625) {
-                width = imgSize[0] > shortSide ? shortSide : imgSize[0];
-                height = width * imgSize[1] / imgSize[0];
-                size = minSize;
-            } else if (scale <= 0.5625) {
-                height = imgSize[1] > longSide ? longSide : imgSize[1];
-                width = height * imgSize[0] / imgSize[1];
-                size = maxSize;
-            }
-        } else {
-            double scale = (double) imgSize[1] / (double) imgSize[0];
-            if (scale <= 1.0 && scale > 0.5625) {
-                height = imgSize[1] > shortSide ? shortSide : imgSize[1];
-                width = height * imgSize[0] / imgSize[1];
-                size = minSize;
-            } else if (scale <= 0.5625) {
-                width = imgSize[0] > longSide ? longSide : imgSize[0];
-                height = width * imgSize[1] / imgSize[0];
-                size = maxSize;
             }
+            return claim;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted");
         }
+    }
 
-        return compress(filePath, createTempFile(filePath), width, height, angle, size);
+    private void releaseKey(String key, CountDownLatch claim) {
+        inFlight.remove(key, claim);
+        claim.countDown();
     }
 
     /**
      * 获取图片的宽高
      */
     public int[] getImageSize(String imagePath) {
-        int[] res = new int[2];
-
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        options.inSampleSize = 1;
-        BitmapFactory.decodeFile(imagePath, options);
-
-        res[0] = options.outWidth;
-        res[1] = options.outHeight;
+        ImageHeader header = ImageHeader.read(imagePath);
+        return new int[]{header.width, header.height};
+    }
 
-        return res;
+    /**
+     * 原图已经满足压缩要求的时候不需要解码
+     * 文件不超过期望大小，宽高不超过目标宽高，不需要旋转，并且没有EXIF等元数据
+     * 带有元数据的直接使用原图会带出GPS、设备序列号，需要重新编码按照EXIF策略处理
+     *
+     * @param width  目标宽度，和高度一起只表示长短边
+     * @param height 目标高度
+     * @param size   期望大小 kb
+     */
+    private static boolean canSkip(File source, ImageHeader header, int width, int height, int angle, long size) {
+        if (header.hasMetadata || angle % 360 != 0 || size <= 0 || source.length() > size * 1024) {
+            return false;
+        }
+        int targetLong = Math.max(width, height);
+        int targetShort = Math.min(width, height);
+        return Math.max(header.width, header.height) <= targetLong
+                && Math.min(header.width, header.height) <= targetShort;
     }
 
     /**
-     * 按照指定的宽高压缩
+     * 把压缩等级计算的宽高转成和原图一样的方向，并且不放大
      *
-     * @param imagePath 目标图片
-     * @param width     压缩宽度
-     * @param height    压缩高度
-     * @return {@link Bitmap}
+     * @param width  压缩宽度，和高度一起只表示长短边
+     * @param height 压缩高度
+     * @return {宽, 高}
      */
-    private Bitmap compress(String imagePath, int width, int height) {
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeFile(imagePath, options);
+    private static int[] orientTarget(ImageHeader header, int width, int height) {
+        int outW = header.width;
+        int outH = header.height;
+        if ((outW > outH) != (width > height)) {
+            int temp = width;
+            width = height;
+            height = temp;
+        }
+        if (width <= 0 || height <= 0 || width > outW || height > outH) {
+            width = outW;
+            height = outH;
+        }
+        return new int[]{width, height};
+    }
 
-        int outH = options.outHeight;
-        int outW = options.outWidth;
+    /**
+     * 不小于目标尺寸的最大2的幂次采样率
+     */
+    private static int sampleSizeFor(ImageHeader header, int width, int height) {
         int inSampleSize = 1;
-
-        if (outH > height || outW > width) {
-            int halfH = outH / 2;
-            int halfW = outW / 2;
-
-            while ((halfH / inSampleSize) > height && (halfW / inSampleSize) > width) {
-                inSampleSize *= 2;
-            }
+        while (header.width / (inSampleSize * 2) >= width && header.height / (inSampleSize * 2) >= height) {
+            inSampleSize *= 2;
         }
+        return inSampleSize;
+    }
 
+    /**
+     * 按照指定的宽高解码，同时处理旋转
+     * 用指定的采样率解码，再用一次矩阵变换缩放到精确的宽高并旋转
+     * 内存预算不够加大了采样率的时候，解码结果比目标小，不会再放大
+     *
+     * @param imagePath    目标图片
+     * @param header       目标图片的头信息
+     * @param width        压缩宽度，方向和原图一致
+     * @param height       压缩高度
+     * @param inSampleSize 采样率
+     * @param angle        旋转角度
+     * @param metrics      记录解码和缩放旋转的耗时
+     * @return {@link Bitmap} 已经旋转过的图片
+     */
+    private Bitmap decodeScaled(String imagePath, ImageHeader header, int width, int height, int inSampleSize,
+                                int angle, CompressMetrics metrics) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
         options.inSampleSize = inSampleSize;
-
-        options.inJustDecodeBounds = false;
-
-        int heightRatio = (int) Math.ceil(options.outHeight / (float) height);
-        int widthRatio = (int) Math.ceil(options.outWidth / (float) width);
-
-        if (heightRatio > 1 || widthRatio > 1) {
-            if (heightRatio > widthRatio) {
-                options.inSampleSize = heightRatio;
-            } else {
-                options.inSampleSize = widthRatio;
+        options.inMutable = true;
+        long byteCount = DecodeScheduler.estimateBytes(header.width, header.height, inSampleSize);
+        BitmapPool pool = BitmapPool.get();
+        long start = System.nanoTime();
+        options.inBitmap = pool.getForDecode(byteCount);
+        Bitmap decoded = BitmapFactory.decodeFile(imagePath, options);
+        if (decoded == null && options.inBitmap != null) {
+            //decodeFile 内部捕获了复用失败的异常，只返回null；这张不能复用，回收掉免得下次又取到，重新分配解码一次
+            options.inBitmap.recycle();
+            options.inBitmap = null;
+            decoded = BitmapFactory.decodeFile(imagePath, options);
+        }
+        metrics.endStage(CompressMetrics.STAGE_DECODE, start);
+        if (decoded == null) {
+            return null;
+        }
+        Bitmap result = null;
+        start = System.nanoTime();
+        try {
+            if (decoded.getWidth() < width || decoded.getHeight() < height) {
+                width = decoded.getWidth();
+                height = decoded.getHeight();
+            }
+            result = scaleAndRotate(decoded, width, height, angle);
+            metrics.endStage(CompressMetrics.STAGE_TRANSFORM, start);
+            //缩放旋转的时候两张图片同时存在
+            metrics.peakBitmapBytes = byteCountOf(decoded) + (result != decoded ? byteCountOf(result) : 0);
+        } finally {
+            if (result != decoded) {
+                //生成了新的图片，解码的图片马上放回池里
+                pool.put(decoded);
             }
         }
-        options.inJustDecodeBounds = false;
+        return result;
+    }
 
-        return BitmapFactory.decodeFile(imagePath, options);
+    private static long byteCountOf(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
     }
 
     /**
-     * 获得图像旋转角度
+     * 一次绘制完成缩放和旋转
+     * 不需要缩放和旋转的时候返回原图，调用方不要回收
      *
-     * @param path 目标文件路径
+     * @param bitmap 解码出来的图片
+     * @param width  旋转前的目标宽度
+     * @param height 旋转前的目标高度
+     * @param angle  旋转的角度
      */
-    private int getImageSpinAngle(String path) {
-        int degree = 0;
-        try {
-            ExifInterface exifInterface = new ExifInterface(path);
-            int orientation = exifInterface.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-            switch (orientation) {
-                case ExifInterface.ORIENTATION_ROTATE_90:
-                    degree = 90;
-                    break;
-                case ExifInterface.ORIENTATION_ROTATE_180:
-                    degree = 180;
-                    break;
-                case ExifInterface.ORIENTATION_ROTATE_270:
-                    degree = 270;
-                    break;
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    private static Bitmap scaleAndRotate(Bitmap bitmap, int width, int height, int angle) {
+        boolean scale = bitmap.getWidth() != width || bitmap.getHeight() != height;
+        if (!scale && angle % 360 == 0) {
+            return bitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.setScale(width / (float) bitmap.getWidth(), height / (float) bitmap.getHeight());
+        matrix.postRotate(angle);
+        RectF bounds = new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+        int targetW = Math.round(bounds.width());
+        int targetH = Math.round(bounds.height());
+        Bitmap.Config config = bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+
+        //优先从池里取，取不到再创建
+        Bitmap target = BitmapPool.get().getDirty(targetW, targetH, config);
+        if (target == null) {
+            target = Bitmap.createBitmap(targetW, targetH, config);
         }
-        return degree;
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        //池里取出的图片有旧内容，直接覆盖不混合
+        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        Canvas canvas = new Canvas(target);
+        canvas.drawBitmap(bitmap, matrix, paint);
+        canvas.setBitmap(null);
+        return target;
     }
 
     /**
-     * 指定参数压缩图片
+     * 按照输出方式压缩图片
+     * 判断内容的时候按照两份里面大的一份解码，用解码的图片判断内容，选择的一份更小就再缩小一次，不再单独解码判断
      *
      * @param largeImagePath the big image path
-     * @param thumbFilePath  the thumbnail path
-     * @param width          width of thumbnail
-     * @param height         height of thumbnail
-     * @param angle          rotation angle of thumbnail
-     * @param size           the file size of image
+     * @param header         header of the big image
+     * @param plan           照片或者不判断内容的输出方式
+     * @param graphicPlan    判断为图形的输出方式，不判断内容传null
+     * @param metrics        the metrics of this image，判断的结果写到 contentType
+     * @param token          cancel between stages
      */
-    private File compress(String largeImagePath, String thumbFilePath, int width, int height, int angle, long size) {
-        Bitmap thbBitmap = compress(largeImagePath, width, height);
-
-        thbBitmap = rotatingImage(angle, thbBitmap);
-
-        return saveImage(thumbFilePath, thbBitmap, size);
+    private File compress(String largeImagePath, ImageHeader header, Plan plan, Plan graphicPlan,
+                          CompressMetrics metrics, CancelToken token) {
+        File source = new File(largeImagePath);
+        Plan decodePlan = plan;
+        if (graphicPlan != null) {
+            if (plan.original || (long) graphicPlan.width * graphicPlan.height >= (long) plan.width * plan.height) {
+                decodePlan = graphicPlan;
+            }
+        } else if (canSkip(source, header, plan.width, plan.height, plan.angle, plan.size)) {
+            metrics.skipped = true;
+            return source;
+        }
+        int[] target = orientTarget(header, decodePlan.width, decodePlan.height);
+        //解码的图片和缩放后的图片同时存在，一起计算内存
+        long targetBytes = DecodeScheduler.estimateBytes(target[0], target[1], 1);
+        int wantedSampleSize = sampleSizeFor(header, target[0], target[1]);
+        int inSampleSize = decodeScheduler.fitSampleSize(header.width, header.height, wantedSampleSize, targetBytes);
+        //超大图或者整张解码放不进预算的，按条带解码，只需要一条的内存
+        boolean tiled = TiledDecoder.shouldUse(header, wantedSampleSize, inSampleSize);
+        long granted = acquireBudget((tiled ? TiledDecoder.stripBytes(header, wantedSampleSize)
+                : DecodeScheduler.estimateBytes(header.width, header.height, inSampleSize)) + targetBytes, token);
+        try {
+            Bitmap thbBitmap = null;
+            if (tiled) {
+                thbBitmap = TiledDecoder.decode(largeImagePath, header, target[0], target[1], wantedSampleSize,
+                        decodePlan.angle, metrics, token);
+                if (thbBitmap == null) {
+                    //区域解码不支持，换回整张解码，重新申请预算
+                    decodeScheduler.release(granted);
+                    granted = 0;
+                    granted = acquireBudget(DecodeScheduler.estimateBytes(header.width, header.height, inSampleSize)
+                            + targetBytes, token);
+                }
+            }
+            if (thbBitmap == null) {
+                thbBitmap = decodeScaled(largeImagePath, header, target[0], target[1], inSampleSize,
+                        decodePlan.angle, metrics);
+            }
+            if (thbBitmap == null) {
+                return null;
+            }
+            try {
+                Plan used = plan;
+                if (graphicPlan != null) {
+                    long start = System.nanoTime();
+                    metrics.contentType = ContentClassifier.classify(thbBitmap);
+                    metrics.endStage(CompressMetrics.STAGE_CLASSIFY, start);
+                    token.throwIfCancelled();
+                    used = metrics.contentType == CONTENT_GRAPHIC ? graphicPlan : plan;
+                    if (used.original || canSkip(source, header, used.width, used.height, used.angle, used.size)) {
+                        metrics.skipped = true;
+                        return source;
+                    }
+                    if (used != decodePlan) {
+                        long transformStart = System.nanoTime();
+                        Bitmap scaled = rescale(thbBitmap, header, decodePlan, used);
+                        if (scaled != thbBitmap) {
+                            BitmapPool.get().put(thbBitmap);
+                            thbBitmap = scaled;
+                        }
+                        metrics.endStage(CompressMetrics.STAGE_TRANSFORM, transformStart);
+                    }
+                }
+                token.throwIfCancelled();
+                return saveImage(used.thumbPath, thbBitmap, used.format, used.size, used.similarity, used.exif,
+                        metrics, token);
+            } finally {
+                //编码完成马上放回池里，下一张图片复用
+                BitmapPool.get().put(thbBitmap);
+            }
+        } finally {
+            decodeScheduler.release(granted);
+        }
     }
 
     /**
-     * 旋转图片
-     * rotate the image with specified angle
+     * 按照另一份输出方式缩小已经解码的图片，不放大
      *
-     * @param angle  the angle will be rotating 旋转的角度
-     * @param bitmap target image               目标图片
+     * @param bitmap 按照 from 解码和旋转的图片
      */
-    private static Bitmap rotatingImage(int angle, Bitmap bitmap) {
-        //rotate image
-        Matrix matrix = new Matrix();
-        matrix.postRotate(angle);
+    private static Bitmap rescale(Bitmap bitmap, ImageHeader header, Plan from, Plan to) {
+        int[] target = orientTarget(header, to.width, to.height);
+        int width = target[0];
+        int height = target[1];
+        if (from.angle % 180 != 0) {
+            //已经旋转过，宽高对调之后才是这张图片的方向
+            int temp = width;
+            width = height;
+            height = temp;
+        }
+        if (width > bitmap.getWidth() || height > bitmap.getHeight()) {
+            width = bitmap.getWidth();
+            height = bitmap.getHeight();
+        }
+        return scaleAndRotate(bitmap, width, height, to.angle - from.angle);
+    }
 
-        //create a new image
-        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+    /**
+     * 等待解码的内存预算，等待的时候检查是否取消
+     *
+     * @return 占用的字节数
+     */
+    private long acquireBudget(long bytes, CancelToken token) {
+        try {
+            long granted;
+            while ((granted = decodeScheduler.acquire(bytes, BUDGET_WAIT_MS)) < 0) {
+                token.throwIfCancelled();
+            }
+            return granted;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted");
+        }
     }
 
     /**
      * 保存图片到指定路径
      * Save image with specified size
+     * 先写到临时文件，写完之后重命名，目标文件要么不存在要么是完整的
      *
      * @param filePath the image file save path 储存路径
      * @param bitmap   the image what be save   目标图片
+     * @param format   the output format        输出格式
      * @param size     the file size of image   期望大小
+     * @param similarity the ssim threshold    相似度阈值，大于0的时候按照相似度编码，忽略大小
+     * @param exif     the exif to write        需要写入的EXIF，null不写
+     * @param metrics  the metrics of this image 压缩数据
+     * @param token    cancel between encodes   取消标记
+     * @return 写入失败返回null
      */
-    private File saveImage(String filePath, Bitmap bitmap, long size) {
+    private File saveImage(String filePath, Bitmap bitmap, OutputFormat format, long size, float similarity,
+                           ExifWriter exif, CompressMetrics metrics, CancelToken token) {
         if (filePath == null || bitmap == null) {
             return null;
         }
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        //图片质量
-        int options = 100;
-        //压缩图片
-        bitmap.compress(Bitmap.CompressFormat.JPEG, options, stream);
-        while (stream.toByteArray().length / 1024.0 > size && options > 6) {
-            stream.reset();
-            options -= 6;
-            bitmap.compress(Bitmap.CompressFormat.JPEG, options, stream);
-        }
-
+        QualityEncoder encoder = QualityEncoder.get();
+        long start = System.nanoTime();
+        File file = new File(filePath);
+        File temp = new File(filePath + TEMP_SUFFIX);
+        FileOutputStream fos = null;
+        FileChannel channel = null;
+        boolean committed = false;
         try {
-            FileOutputStream fos = new FileOutputStream(filePath);
-            fos.write(stream.toByteArray());
-            fos.flush();
-            fos.close();
+            EncodeBuffer result = similarity > 0
+                    ? encoder.encodeBySimilarity(bitmap, format, similarity, token)
+                    : encoder.encode(bitmap, format, size * 1024, token);
+            metrics.endStage(CompressMetrics.STAGE_ENCODE, start);
+            metrics.encodeCount = encoder.getEncodeCount();
+            metrics.quality = encoder.getQuality();
+            metrics.similarity = encoder.getSimilarity();
+            token.throwIfCancelled();
+            start = System.nanoTime();
+            fos = new FileOutputStream(temp);
+            channel = fos.getChannel();
+            //直接从编码缓冲区写到文件，不再拷贝
+            result.writeTo(channel);
+            if (syncPolicy == SYNC_FILE && exif == null) {
+                channel.force(false);
+            }
+            channel.close();
+            if (exif != null) {
+                //ExifInterface 会重写整个文件，重写之后再同步，重命名的时候磁盘上是完整的内容
+                exif.writeTo(temp);
+                if (syncPolicy == SYNC_FILE) {
+                    syncFile(temp);
+                }
+            }
+            if (!temp.renameTo(file)) {
+                //部分系统目标存在的时候不能覆盖
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    throw new IOException("rename failed: " + temp);
+                }
+            }
+            committed = true;
         } catch (IOException e) {
             e.printStackTrace();
+            return null;
+        } finally {
+            PhotoHanderUtils.closeSilently(channel);
+            PhotoHanderUtils.closeSilently(fos);
+            if (fos != null) {
+                metrics.endStage(CompressMetrics.STAGE_WRITE, start);
+            }
+            if (!committed) {
+                temp.delete();
+            }
+            encoder.trim();
         }
 
-        return new File(filePath);
+        return file;
     }
 
 
-    public String createTempFile(String orginFile) {
-        try {
-            File file = new File(mCacheDir, Math.abs(orginFile.hashCode()) + PhotoHanderUtils.getFileSuffix(orginFile));
-            file.createNewFile();
-            return file.getAbsolutePath();
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
-        }
-    }
-
     /**
-     * 获取文件夹中已经存在的文件
+     * 重新打开文件同步到磁盘
      */
-
-    public File getTempFile(String orginFile) {
-        String tempPath = mCacheDir.getAbsolutePath() + File.separator +
-                Math.abs(orginFile.hashCode()) + PhotoHanderUtils.getFileSuffix(orginFile);
-        File file = new File(tempPath);
-        if (file.exists()) {
-            return file;
+    private static void syncFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.getFD().sync();
+        } finally {
+            PhotoHanderUtils.closeSilently(raf);
         }
-        return null;
     }
 
+
     public static int getFiles(File mCacheDir) {
         if (mCacheDir == null || !mCacheDir.exists()) {
             return 0;
@@ -653,4 +932,4 @@ public class Luban {
         }
         return num;
     }
-}
\ No newline at end of file
+}
@@ -17,6 +17,20 @@ public abstract class OnCompressListener {
     public void onStart() {
     }
 
+    /**
+     * 单张图片处理完成，按照完成的顺序回调，可以在这里开始上传
+     *
+     * @param index 在选择列表中的位置
+     * @param data  处理结果
+     */
+    public void onItemSuccess(int index, ImageSelectData data) {
+    }
+
+    /**
+     * 全部处理完成
+     *
+     * @param files 按照选择的顺序
+     */
     public abstract void onSuccess(ArrayList<ImageSelectData> files);
 
     public void onError(Throwable e) {
@@ -0,0 +1,13 @@
+package com.ashlikun.photo_hander.compress;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/11 14:25
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：压缩数据的回调
+ * 每张本地图片压缩结束调用一次，在压缩线程调用，多张图片可能同时回调，不要做耗时操作
+ */
+public interface OnCompressMetricsListener {
+    void onImageCompressed(CompressMetrics metrics);
+}
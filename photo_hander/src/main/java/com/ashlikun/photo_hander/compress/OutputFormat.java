@@ -0,0 +1,110 @@
+package com.ashlikun.photo_hander.compress;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import com.ashlikun.photo_hander.utils.ImageHeader;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/10 16:20
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：压缩输出的格式
+ * 对应 {@link Luban#FORMAT_JPEG} 等配置，决定编码方式、文件后缀和类型
+ */
+class OutputFormat {
+    static final OutputFormat JPEG = new OutputFormat(Bitmap.CompressFormat.JPEG, false,
+            100, ".jpg", ImageHeader.MIME_JPEG);
+    /**
+     * Q 开始 WEBP 质量100的时候是无损编码，有损最高只能用99
+     */
+    static final OutputFormat WEBP = new OutputFormat(Bitmap.CompressFormat.WEBP, false,
+            99, ".webp", ImageHeader.MIME_WEBP);
+    /**
+     * 只有 Q 开始才是真的无损，Q 以下质量100还是有损编码
+     */
+    static final OutputFormat WEBP_LOSSLESS = new OutputFormat(Bitmap.CompressFormat.WEBP, true,
+            100, ".webp", ImageHeader.MIME_WEBP);
+    /**
+     * Q 以下指定无损的时候使用，质量不起作用
+     */
+    static final OutputFormat PNG = new OutputFormat(Bitmap.CompressFormat.PNG, true,
+            100, ".png", ImageHeader.MIME_PNG);
+    /**
+     * 10.0(API 29) 开始 WEBP 质量100才是无损编码
+     */
+    private static final int LOSSLESS_WEBP_MIN_SDK = 29;
+
+    final Bitmap.CompressFormat compressFormat;
+    /**
+     * 无损编码只编码一次，期望大小不起作用
+     */
+    final boolean lossless;
+    final int maxQuality;
+    final String suffix;
+    final String mimeType;
+
+    private OutputFormat(Bitmap.CompressFormat compressFormat, boolean lossless,
+                         int maxQuality, String suffix, String mimeType) {
+        this.compressFormat = compressFormat;
+        this.lossless = lossless;
+        this.maxQuality = maxQuality;
+        this.suffix = suffix;
+        this.mimeType = mimeType;
+    }
+
+    /**
+     * 根据配置和原图选择输出格式
+     * 4.3 以下 WEBP 不支持透明，全部用JPEG
+     * 指定无损：10.0 开始用无损WEBP，以下用PNG
+     * 自动模式：PNG、GIF 或者判断为图形的一般是截图，10.0 开始高质量的等级用无损WEBP，其他用有损WEBP
+     * 10.0 以下自动模式不用PNG，截图用PNG往往比原图还大，有损WEBP还可以按照大小或者相似度查找质量
+     *
+     * @param format  配置的格式
+     * @param gear    压缩等级
+     * @param header  原图的头信息
+     * @param content {@link ContentClassifier} 的结果，没有判断传 {@link Luban#CONTENT_UNKNOWN}
+     */
+    static OutputFormat resolve(int format, int gear, ImageHeader header, int content) {
+        if (format == Luban.FORMAT_JPEG || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return JPEG;
+        }
+        if (format == Luban.FORMAT_WEBP) {
+            return WEBP;
+        }
+        boolean losslessWebp = Build.VERSION.SDK_INT >= LOSSLESS_WEBP_MIN_SDK;
+        if (format == Luban.FORMAT_WEBP_LOSSLESS) {
+            return losslessWebp ? WEBP_LOSSLESS : PNG;
+        }
+        boolean graphic = ImageHeader.MIME_PNG.equals(header.mimeType)
+                || ImageHeader.MIME_GIF.equals(header.mimeType)
+                || content == Luban.CONTENT_GRAPHIC;
+        if (graphic && gear != Luban.FIRST_GEAR && losslessWebp) {
+            return WEBP_LOSSLESS;
+        }
+        return WEBP;
+    }
+
+    /**
+     * 根据文件后缀获取类型
+     *
+     * @return 不认识的后缀返回null
+     */
+    static String mimeTypeOf(String path) {
+        if (path == null) {
+            return null;
+        }
+        String lower = path.toLowerCase();
+        if (lower.endsWith(".jpg") || lower.endsWith(".jpeg")) {
+            return ImageHeader.MIME_JPEG;
+        } else if (lower.endsWith(".webp")) {
+            return ImageHeader.MIME_WEBP;
+        } else if (lower.endsWith(".png")) {
+            return ImageHeader.MIME_PNG;
+        } else if (lower.endsWith(".gif")) {
+            return ImageHeader.MIME_GIF;
+        }
+        return null;
+    }
+}
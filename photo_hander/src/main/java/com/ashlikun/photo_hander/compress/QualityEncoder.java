@@ -0,0 +1,198 @@
+package com.ashlikun.photo_hander.compress;
+
+import android.graphics.Bitmap;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/3 14:35
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：按照期望大小查找图片质量
+ * 先用最高质量编码一次，超出期望大小再对质量二分查找，最多8次编码
+ * 无损格式只编码一次
+ * 也可以按照和原图的相似度查找，见 {@link #encodeBySimilarity}
+ * 每个压缩线程持有一个实例，两个缓冲区交替使用，不会重复分配内存
+ */
+class QualityEncoder {
+    static final int MIN_QUALITY = 4;
+    /**
+     * 缓冲区初始大小
+     */
+    private static final int INIT_BUFFER_SIZE = 256 * 1024;
+    /**
+     * 缓冲区超过这个大小，用完之后释放，防止线程长期持有大数组
+     */
+    private static final int MAX_RETAINED_SIZE = 2 * 1024 * 1024;
+
+    private static final ThreadLocal<QualityEncoder> LOCAL = new ThreadLocal<QualityEncoder>() {
+        @Override
+        protected QualityEncoder initialValue() {
+            return new QualityEncoder();
+        }
+    };
+
+    /**
+     * 正在编码的缓冲区
+     */
+    private EncodeBuffer current = new EncodeBuffer(INIT_BUFFER_SIZE);
+    /**
+     * 目前满足大小的最好结果
+     */
+    private EncodeBuffer best = new EncodeBuffer(INIT_BUFFER_SIZE);
+    private int quality;
+    private int encodeCount;
+    private double similarity = -1;
+
+    private QualityEncoder() {
+    }
+
+    /**
+     * 获取当前线程的编码器
+     */
+    static QualityEncoder get() {
+        return LOCAL.get();
+    }
+
+    /**
+     * 编码图片，直到不超过期望大小或者到达最低质量
+     *
+     * @param bitmap   目标图片
+     * @param format   输出格式
+     * @param maxBytes 期望大小，字节
+     * @param token    每次编码之前检查是否取消
+     * @return 结果所在的缓冲区，下次调用之前有效
+     * @throws java.util.concurrent.CancellationException 已经取消
+     */
+    EncodeBuffer encode(Bitmap bitmap, OutputFormat format, long maxBytes, CancelToken token) {
+        encodeCount = 0;
+        similarity = -1;
+        quality = format.maxQuality;
+        //最高质量的结果一般比期望大，预留两倍，超过保留上限的不预留
+        int hint = (int) Math.min(maxBytes * 2, MAX_RETAINED_SIZE);
+        current.reset();
+        best.reset();
+        current.ensureCapacity(hint);
+        best.ensureCapacity(hint);
+        encodeTo(current, bitmap, format.compressFormat, format.maxQuality);
+        if (format.lossless || current.size() <= maxBytes) {
+            return current;
+        }
+        int low = MIN_QUALITY;
+        int high = format.maxQuality - 1;
+        int bestQuality = -1;
+        while (low <= high) {
+            token.throwIfCancelled();
+            int mid = (low + high) >>> 1;
+            encodeTo(current, bitmap, format.compressFormat, mid);
+            if (current.size() <= maxBytes) {
+                bestQuality = mid;
+                //满足大小，交换缓冲区保留这次结果，继续尝试更高的质量
+                EncodeBuffer temp = best;
+                best = current;
+                current = temp;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (bestQuality != -1) {
+            quality = bestQuality;
+            return best;
+        }
+        //最低质量也超出期望大小，二分最后一次编码的就是最低质量
+        quality = MIN_QUALITY;
+        return current;
+    }
+
+    /**
+     * 查找满足相似度的最低质量
+     * 质量越高相似度越高，二分查找，每次编码之后解码一张小图计算 {@link BlockSsim}
+     *
+     * @param bitmap    目标图片
+     * @param format    输出格式
+     * @param threshold 相似度阈值 0-1
+     * @param token     每次编码之前检查是否取消
+     * @return 结果所在的缓冲区，最高质量也达不到阈值的返回最高质量的结果
+     * @throws java.util.concurrent.CancellationException 已经取消
+     */
+    EncodeBuffer encodeBySimilarity(Bitmap bitmap, OutputFormat format, float threshold, CancelToken token) {
+        encodeCount = 0;
+        similarity = -1;
+        quality = format.maxQuality;
+        if (format.lossless) {
+            encodeTo(current, bitmap, format.compressFormat, format.maxQuality);
+            similarity = 1;
+            return current;
+        }
+        BlockSsim ssim = new BlockSsim(bitmap);
+        int low = MIN_QUALITY;
+        int high = format.maxQuality;
+        int bestQuality = -1;
+        double bestSimilarity = -1;
+        double lastSimilarity = -1;
+        while (low <= high) {
+            token.throwIfCancelled();
+            int mid = (low + high) >>> 1;
+            encodeTo(current, bitmap, format.compressFormat, mid);
+            lastSimilarity = ssim.compare(current.getBuffer(), current.size());
+            if (lastSimilarity >= threshold) {
+                bestQuality = mid;
+                bestSimilarity = lastSimilarity;
+                //满足相似度，保留这次结果，继续尝试更低的质量
+                EncodeBuffer temp = best;
+                best = current;
+                current = temp;
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        if (bestQuality != -1) {
+            quality = bestQuality;
+            similarity = bestSimilarity;
+            return best;
+        }
+        //都达不到阈值，二分最后一次编码的就是最高质量
+        similarity = lastSimilarity;
+        return current;
+    }
+
+    /**
+     * 最后一次 encode 的图片质量
+     */
+    int getQuality() {
+        return quality;
+    }
+
+    /**
+     * 最后一次 {@link #encodeBySimilarity} 结果的相似度，按照大小编码的为-1
+     */
+    double getSimilarity() {
+        return similarity;
+    }
+
+    /**
+     * 最后一次 encode 的编码次数
+     */
+    int getEncodeCount() {
+        return encodeCount;
+    }
+
+    /**
+     * 结果已经写出后调用，释放过大的缓冲区
+     */
+    void trim() {
+        if (current.capacity() > MAX_RETAINED_SIZE) {
+            current = new EncodeBuffer(INIT_BUFFER_SIZE);
+        }
+        if (best.capacity() > MAX_RETAINED_SIZE) {
+            best = new EncodeBuffer(INIT_BUFFER_SIZE);
+        }
+    }
+
+    private void encodeTo(EncodeBuffer buffer, Bitmap bitmap, Bitmap.CompressFormat format, int quality) {
+        buffer.reset();
+        bitmap.compress(format, quality, buffer);
+        encodeCount++;
+    }
+}
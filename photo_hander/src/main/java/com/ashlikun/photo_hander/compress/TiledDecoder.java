@@ -0,0 +1,166 @@
+package com.ashlikun.photo_hander.compress;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import com.ashlikun.photo_hander.utils.DecodeScheduler;
+import com.ashlikun.photo_hander.utils.ImageHeader;
+
+import java.io.IOException;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/14 10:20
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：超大图按条带解码
+ * 用 {@link BitmapRegionDecoder} 一次解码一条，缩放旋转之后画到压缩后的图片上，解码完马上回收
+ * 同时存在的只有压缩后的图片和一条，和原图多大无关
+ * 系统的编码器只能一次编码整张Bitmap，所以压缩后的图片还是完整的一张，它的大小由压缩等级决定
+ */
+class TiledDecoder {
+    /**
+     * 长边超过这个值的全景图、长截图按条带解码
+     */
+    static final int MIN_SIDE = 8192;
+    /**
+     * 一条解码后的字节数，不包括上下重叠的部分
+     */
+    static final long STRIP_BYTES = 2 * 1024 * 1024;
+    /**
+     * 一条至少解码的行数
+     */
+    private static final int MIN_STRIP_ROWS = 16;
+    /**
+     * 上下多解码的行数(采样后)，缩放过滤的时候条带边缘不会有接缝
+     */
+    private static final int OVERLAP_ROWS = 2;
+
+    private TiledDecoder() {
+    }
+
+    /**
+     * 是否按条带解码
+     *
+     * @param wantedSample 保证清晰度需要的采样率
+     * @param fittedSample 整张解码放进内存预算的采样率，比需要的大说明整张解码要牺牲清晰度
+     */
+    static boolean shouldUse(ImageHeader header, int wantedSample, int fittedSample) {
+        boolean supported = ImageHeader.MIME_JPEG.equals(header.mimeType)
+                || ImageHeader.MIME_PNG.equals(header.mimeType)
+                || ImageHeader.MIME_WEBP.equals(header.mimeType);
+        return supported && (Math.max(header.width, header.height) >= MIN_SIDE || fittedSample > wantedSample);
+    }
+
+    /**
+     * 按照采样率一条的源图行数
+     */
+    private static int stripSourceRows(ImageHeader header, int sample) {
+        long rowBytes = DecodeScheduler.estimateBytes(header.width, sample, sample);
+        int rows = (int) Math.max(MIN_STRIP_ROWS, STRIP_BYTES / Math.max(1, rowBytes));
+        return rows * sample;
+    }
+
+    /**
+     * 一条占用的内存，包括重叠部分，用来申请解码预算
+     */
+    static long stripBytes(ImageHeader header, int sample) {
+        int rows = Math.min(header.height, stripSourceRows(header, sample) + 2 * OVERLAP_ROWS * sample);
+        return DecodeScheduler.estimateBytes(header.width, rows, sample);
+    }
+
+    /**
+     * 按条带解码，缩放旋转到指定大小
+     *
+     * @param width  压缩后的宽，方向和原图一致
+     * @param height 压缩后的高，方向和原图一致
+     * @param sample 每条解码的采样率
+     * @param angle  旋转角度
+     * @return 区域解码器打不开(例如部分系统不支持渐进式JPEG)返回null，调用方改用整张解码
+     * @throws java.util.concurrent.CancellationException 已经取消
+     */
+    static Bitmap decode(String path, ImageHeader header, int width, int height, int sample, int angle,
+                         CompressMetrics metrics, CancelToken token) {
+        long start = System.nanoTime();
+        BitmapRegionDecoder decoder;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(path, false);
+        } catch (IOException e) {
+            return null;
+        }
+        metrics.endStage(CompressMetrics.STAGE_DECODE, start);
+        Bitmap target = null;
+        boolean finished = false;
+        try {
+            int sourceW = decoder.getWidth();
+            int sourceH = decoder.getHeight();
+            //原图坐标到压缩后图片坐标，和整张解码的缩放旋转一致
+            Matrix matrix = new Matrix();
+            matrix.setScale(width / (float) sourceW, height / (float) sourceH);
+            matrix.postRotate(angle);
+            RectF bounds = new RectF(0, 0, sourceW, sourceH);
+            matrix.mapRect(bounds);
+            matrix.postTranslate(-bounds.left, -bounds.top);
+            int targetW = Math.round(bounds.width());
+            int targetH = Math.round(bounds.height());
+            target = BitmapPool.get().getDirty(targetW, targetH, Bitmap.Config.ARGB_8888);
+            if (target == null) {
+                target = Bitmap.createBitmap(targetW, targetH, Bitmap.Config.ARGB_8888);
+            }
+            Canvas canvas = new Canvas(target);
+            Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sample;
+
+            int stripRows = stripSourceRows(header, sample);
+            int overlap = OVERLAP_ROWS * sample;
+            long maxStripBytes = 0;
+            Matrix stripMatrix = new Matrix();
+            RectF clip = new RectF();
+            for (int top = 0; top < sourceH; top += stripRows) {
+                token.throwIfCancelled();
+                int bottom = Math.min(sourceH, top + stripRows);
+                Rect region = new Rect(0, Math.max(0, top - overlap), sourceW, Math.min(sourceH, bottom + overlap));
+                start = System.nanoTime();
+                Bitmap strip = decoder.decodeRegion(region, options);
+                metrics.endStage(CompressMetrics.STAGE_DECODE, start);
+                if (strip == null) {
+                    return null;
+                }
+                start = System.nanoTime();
+                maxStripBytes = Math.max(maxStripBytes, strip.getRowBytes() * (long) strip.getHeight());
+                stripMatrix.set(matrix);
+                stripMatrix.preTranslate(region.left, region.top);
+                stripMatrix.preScale(region.width() / (float) strip.getWidth(),
+                        region.height() / (float) strip.getHeight());
+                //只画这一条自己的部分，重叠的行只用来过滤
+                clip.set(0, top, sourceW, bottom);
+                matrix.mapRect(clip);
+                canvas.save();
+                canvas.clipRect(clip);
+                canvas.drawBitmap(strip, stripMatrix, paint);
+                canvas.restore();
+                strip.recycle();
+                metrics.endStage(CompressMetrics.STAGE_TRANSFORM, start);
+            }
+            canvas.setBitmap(null);
+            metrics.peakBitmapBytes = target.getRowBytes() * (long) target.getHeight() + maxStripBytes;
+            finished = true;
+            return target;
+        } finally {
+            decoder.recycle();
+            if (!finished && target != null) {
+                BitmapPool.get().put(target);
+            }
+        }
+    }
+}
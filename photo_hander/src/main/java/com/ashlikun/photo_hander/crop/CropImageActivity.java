@@ -38,6 +38,9 @@ import android.view.Window;
 import android.view.WindowManager;
 
 import com.ashlikun.photo_hander.R;
+import com.ashlikun.photo_hander.utils.DecodeScheduler;
+import com.ashlikun.photo_hander.utils.ImageHeader;
+import com.ashlikun.photo_hander.utils.PhotoHanderUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -80,6 +83,10 @@ public class CropImageActivity extends AppCompatActivity {
     private boolean isSaving;
 
     private int sampleSize;
+    /**
+     * 当前Bitmap占用的解码内存预算
+     */
+    private long decodeBudget;
     private RotateBitmap rotateBitmap;
     private CropImageView imageView;
     private HighlightView cropView;
@@ -140,10 +147,16 @@ public class CropImageActivity extends AppCompatActivity {
         Intent intent = getIntent();
         optionData = intent.getParcelableExtra(IntentKey.EXTRA_OPTION_DATA);
         if (optionData.source != null) {
-            exifRotation = CropUtil.getExifRotation(CropUtil.getFromMediaUri(this, getContentResolver(), optionData.source));
             InputStream is = null;
             try {
-                sampleSize = calculateBitmapSampleSize(optionData.source);
+                //一次读取头信息，宽高和旋转角度都在里面
+                ImageHeader header = ImageHeader.read(getContentResolver(), optionData.source);
+                exifRotation = header.orientation;
+                //和压缩共用内存预算，不够的时候加大采样率，主线程不等待
+                long[] grant = DecodeScheduler.get(this).acquireNow(header.width, header.height,
+                        calculateBitmapSampleSize(header));
+                sampleSize = (int) grant[0];
+                decodeBudget = grant[1];
                 is = getContentResolver().openInputStream(optionData.source);
                 BitmapFactory.Options option = new BitmapFactory.Options();
                 option.inSampleSize = sampleSize;
@@ -155,25 +168,15 @@ public class CropImageActivity extends AppCompatActivity {
                 Log.e("OOM reading image: " + e.getMessage(), e.toString());
                 setResultException(e);
             } finally {
-                CropUtil.closeSilently(is);
+                PhotoHanderUtils.closeSilently(is);
             }
         }
     }
 
-    private int calculateBitmapSampleSize(Uri bitmapUri) throws IOException {
-        InputStream is = null;
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        try {
-            is = getContentResolver().openInputStream(bitmapUri);
-            BitmapFactory.decodeStream(is, null, options); // Just get image size
-        } finally {
-            CropUtil.closeSilently(is);
-        }
-
+    private int calculateBitmapSampleSize(ImageHeader header) {
         int maxSize = getMaxImageSize();
         int sampleSize = 1;
-        while (options.outHeight / sampleSize > maxSize || options.outWidth / sampleSize > maxSize) {
+        while (header.height / sampleSize > maxSize || header.width / sampleSize > maxSize) {
             sampleSize = sampleSize << 1;
         }
         return sampleSize;
@@ -383,11 +386,28 @@ public class CropImageActivity extends AppCompatActivity {
             }
 
             try {
-                croppedImage = decoder.decodeRegion(rect, new BitmapFactory.Options());
-                if (croppedImage != null && (rect.width() > outWidth || rect.height() > outHeight)) {
+                //不小于输出尺寸的最大2的幂次采样，再受内存预算限制
+                int regionLong = Math.max(rect.width(), rect.height());
+                int regionShort = Math.min(rect.width(), rect.height());
+                int outLong = Math.max(outWidth, outHeight);
+                int outShort = Math.min(outWidth, outHeight);
+                int regionSample = 1;
+                while (regionLong / (regionSample * 2) >= outLong && regionShort / (regionSample * 2) >= outShort) {
+                    regionSample *= 2;
+                }
+                long[] grant = DecodeScheduler.get(this).acquireNow(rect.width(), rect.height(), regionSample);
+                decodeBudget = grant[1];
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = (int) grant[0];
+                croppedImage = decoder.decodeRegion(rect, options);
+                if (croppedImage != null && (croppedImage.getWidth() > outWidth || croppedImage.getHeight() > outHeight)) {
                     Matrix matrix = new Matrix();
-                    matrix.postScale((float) outWidth / rect.width(), (float) outHeight / rect.height());
-                    croppedImage = Bitmap.createBitmap(croppedImage, 0, 0, croppedImage.getWidth(), croppedImage.getHeight(), matrix, true);
+                    matrix.postScale((float) outWidth / croppedImage.getWidth(), (float) outHeight / croppedImage.getHeight());
+                    Bitmap scaled = Bitmap.createBitmap(croppedImage, 0, 0, croppedImage.getWidth(), croppedImage.getHeight(), matrix, true);
+                    if (scaled != croppedImage) {
+                        croppedImage.recycle();
+                        croppedImage = scaled;
+                    }
                 }
             } catch (IllegalArgumentException e) {
                 // Rethrow with some extra information
@@ -402,7 +422,7 @@ public class CropImageActivity extends AppCompatActivity {
             Log.e("OOM cropping image: " + e.getMessage(), e.toString());
             setResultException(e);
         } finally {
-            CropUtil.closeSilently(is);
+            PhotoHanderUtils.closeSilently(is);
         }
         return croppedImage;
     }
@@ -412,9 +432,15 @@ public class CropImageActivity extends AppCompatActivity {
         if (rotateBitmap != null) {
             rotateBitmap.recycle();
         }
+        releaseDecodeBudget();
         System.gc();
     }
 
+    private void releaseDecodeBudget() {
+        DecodeScheduler.get(this).release(decodeBudget);
+        decodeBudget = 0;
+    }
+
     /**
      * 保存图片
      *
@@ -440,7 +466,7 @@ public class CropImageActivity extends AppCompatActivity {
             } catch (IOException e) {
                 setResultException(e);
             } finally {
-                CropUtil.closeSilently(outputStream);
+                PhotoHanderUtils.closeSilently(outputStream);
             }
         }
         final Bitmap b = croppedImage;
@@ -460,6 +486,7 @@ public class CropImageActivity extends AppCompatActivity {
         if (rotateBitmap != null) {
             rotateBitmap.recycle();
         }
+        releaseDecodeBudget();
         if (dialog != null) {
             dialog.dismiss();
         }
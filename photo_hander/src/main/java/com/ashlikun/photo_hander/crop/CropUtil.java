@@ -27,7 +27,9 @@ import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Log;
 
-import java.io.Closeable;
+import com.ashlikun.photo_hander.utils.ImageHeader;
+import com.ashlikun.photo_hander.utils.PhotoHanderUtils;
+
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
@@ -47,37 +49,11 @@ class CropUtil {
     private static final String SCHEME_FILE = "file";
     private static final String SCHEME_CONTENT = "content";
 
-    public static void closeSilently(@Nullable Closeable c) {
-        if (c == null) {
-            return;
-        }
-        try {
-            c.close();
-        } catch (Throwable t) {
-        }
-    }
-
     public static int getExifRotation(File imageFile) {
         if (imageFile == null) {
             return 0;
         }
-        try {
-            ExifInterface exif = new ExifInterface(imageFile.getAbsolutePath());
-            // 我们只识别了方向标签值的一个子集
-            switch (exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_UNDEFINED)) {
-                case ExifInterface.ORIENTATION_ROTATE_90:
-                    return 90;
-                case ExifInterface.ORIENTATION_ROTATE_180:
-                    return 180;
-                case ExifInterface.ORIENTATION_ROTATE_270:
-                    return 270;
-                default:
-                    return ExifInterface.ORIENTATION_UNDEFINED;
-            }
-        } catch (IOException e) {
-            Log.e("Error getting Exif data", e.toString());
-            return 0;
-        }
+        return ImageHeader.read(imageFile.getAbsolutePath()).orientation;
     }
 
     public static boolean copyExifRotation(File sourceFile, File destFile) {
@@ -166,8 +142,8 @@ class CropUtil {
         } catch (IOException ignored) {
             // 什么我们可以做的
         } finally {
-            closeSilently(input);
-            closeSilently(output);
+            PhotoHanderUtils.closeSilently(input);
+            PhotoHanderUtils.closeSilently(output);
         }
         return null;
     }
@@ -0,0 +1,201 @@
+package com.ashlikun.photo_hander.utils;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/12 14:10
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：图片解码的内存预算
+ * 解码之前按照头信息的宽高和采样率估算Bitmap的字节数，所有同时存在的解码加起来不超过堆内存的一定比例
+ * 超出预算的时候：压缩线程排队等待，主线程加大采样率
+ * 单个解码超过整个预算的，先加大采样率，还是超出就独占整个预算执行
+ */
+public class DecodeScheduler {
+    /**
+     * 默认可以使用的堆内存比例
+     */
+    public static final float DEFAULT_HEAP_FRACTION = 0.25f;
+    /**
+     * ARGB_8888
+     */
+    private static final int BYTES_PER_PIXEL = 4;
+    /**
+     * 采样率最大值，防止宽高异常的时候死循环
+     */
+    private static final int MAX_SAMPLE_SIZE = 1 << 10;
+
+    private static volatile DecodeScheduler INSTANCE;
+
+    private final long heapBytes;
+    private float heapFraction = DEFAULT_HEAP_FRACTION;
+    private long budget;
+    private long used;
+
+    private DecodeScheduler(long heapBytes) {
+        this.heapBytes = heapBytes;
+        this.budget = (long) (heapBytes * heapFraction);
+    }
+
+    /**
+     * 全局共用一个实例，压缩和裁剪的解码一起计算
+     */
+    public static DecodeScheduler get(Context context) {
+        if (INSTANCE == null) {
+            synchronized (DecodeScheduler.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new DecodeScheduler(getHeapBytes(context.getApplicationContext()));
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * 应用可以使用的堆内存
+     * Runtime.maxMemory 和 ActivityManager 的内存等级取小的，开启 largeHeap 的用大内存等级
+     */
+    private static long getHeapBytes(Context context) {
+        long heap = Runtime.getRuntime().maxMemory();
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (am != null) {
+            boolean largeHeap = (context.getApplicationInfo().flags & ApplicationInfo.FLAG_LARGE_HEAP) != 0;
+            int memoryClass = largeHeap ? am.getLargeMemoryClass() : am.getMemoryClass();
+            if (memoryClass > 0) {
+                heap = Math.min(heap, memoryClass * 1024L * 1024L);
+            }
+        }
+        return heap;
+    }
+
+    /**
+     * 设置解码可以使用的堆内存比例
+     *
+     * @param fraction (0,1]
+     */
+    public synchronized void setHeapFraction(float fraction) {
+        if (fraction <= 0 || fraction > 1) {
+            throw new IllegalArgumentException("fraction must be in (0,1]: " + fraction);
+        }
+        heapFraction = fraction;
+        budget = (long) (heapBytes * fraction);
+        notifyAll();
+    }
+
+    public synchronized float getHeapFraction() {
+        return heapFraction;
+    }
+
+    /**
+     * 总预算，字节
+     */
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * 正在使用的预算，字节
+     */
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    /**
+     * 估算解码后Bitmap的字节数，按照 ARGB_8888
+     *
+     * @param width      原图宽
+     * @param height     原图高
+     * @param sampleSize 采样率
+     */
+    public static long estimateBytes(int width, int height, int sampleSize) {
+        sampleSize = Math.max(1, sampleSize);
+        return (long) Math.ceil(width / (double) sampleSize)
+                * (long) Math.ceil(height / (double) sampleSize) * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * 单个解码超过整个预算的时候加大采样率(2的幂次)
+     *
+     * @param width      原图宽
+     * @param height     原图高
+     * @param sampleSize 原本的采样率
+     * @param extraBytes 同时需要的其他内存，例如缩放后的图片
+     * @return 不超过预算的采样率，已经满足返回原本的采样率
+     */
+    public int fitSampleSize(int width, int height, int sampleSize, long extraBytes) {
+        return fitSampleSize(width, height, sampleSize, extraBytes, getBudget());
+    }
+
+    private static int fitSampleSize(int width, int height, int sampleSize, long extraBytes, long limit) {
+        sampleSize = Math.max(1, sampleSize);
+        while (sampleSize < MAX_SAMPLE_SIZE
+                && estimateBytes(width, height, sampleSize) + extraBytes > limit) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 不等待，加大采样率直到可以放进剩余的预算，给主线程用
+     * 剩余的预算怎么都放不下的时候也会执行，用 {@link #fitSampleSize} 的结果独占
+     *
+     * @param width      原图宽
+     * @param height     原图高
+     * @param sampleSize 原本的采样率
+     * @return 采样率和占用的预算，用完之后调用 {@link #release(long)}
+     */
+    public synchronized long[] acquireNow(int width, int height, int sampleSize) {
+        long available = budget - used;
+        int fitted = fitSampleSize(width, height, sampleSize, 0, available);
+        long bytes = estimateBytes(width, height, fitted);
+        if (bytes > available) {
+            fitted = fitSampleSize(width, height, sampleSize, 0, budget);
+            bytes = estimateBytes(width, height, fitted);
+        }
+        used += bytes;
+        return new long[]{fitted, bytes};
+    }
+
+    /**
+     * 占用预算，不够的时候等待其他解码释放，给后台线程用
+     * 超过整个预算的按照整个预算计算，也就是等到没有其他解码的时候执行
+     *
+     * @param bytes     需要的字节数
+     * @param timeoutMs 最多等待的时间，超时返回-1，调用方可以检查是否取消后再次调用
+     * @return 实际占用的字节数，用完之后调用 {@link #release(long)}
+     */
+    public synchronized long acquire(long bytes, long timeoutMs) throws InterruptedException {
+        long granted = Math.min(bytes, budget);
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        //没有其他解码的时候一定可以执行
+        while (used > 0 && used + granted > budget) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                return -1;
+            }
+            wait(wait);
+            granted = Math.min(bytes, budget);
+        }
+        used += granted;
+        return granted;
+    }
+
+    /**
+     * 释放 {@link #acquire} 或者 {@link #acquireNow} 占用的预算
+     */
+    public synchronized void release(long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        used = Math.max(0, used - bytes);
+        notifyAll();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DecodeScheduler[used=" + used + ",budget=" + budget + ",heap=" + heapBytes + "]";
+    }
+}
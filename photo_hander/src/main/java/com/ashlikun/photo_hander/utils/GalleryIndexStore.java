@@ -0,0 +1,205 @@
+package com.ashlikun.photo_hander.utils;
+
+import android.content.Context;
+
+import com.ashlikun.photo_hander.bean.Image;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/15 19:20
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：保存上一次的相册索引，下次打开先显示保存的，不用等查询
+ * 同一个进程里面直接使用内存里面的一份，不读文件
+ * 文件是紧凑的二进制格式：
+ * 文件头 MAGIC VERSION 最大的修改时间
+ * 目录表 数量 [目录路径 BUCKET_ID 目录名]，图片只保存所在目录的序号和文件名，路径不重复保存
+ * 图片表 数量 [id 添加时间 修改时间 大小 目录序号 文件名 显示的名字(和文件名一样为空)]
+ * 先写临时文件再重命名，写到一半的文件不会被读到；格式不对直接删除，重新全部读取
+ */
+class GalleryIndexStore {
+    private static final int MAGIC = 0x50484958;
+    private static final int VERSION = 1;
+    private static final String FILE_NAME = "ph_gallery_index";
+    private static final String FILE_NAME_TEMP = "ph_gallery_index.tmp";
+
+    private static final Object LOCK = new Object();
+    /**
+     * 这个进程最近一次读取或者保存的索引
+     */
+    private static Index memory;
+
+    private GalleryIndexStore() {
+    }
+
+    /**
+     * 一次保存的索引
+     */
+    static class Index {
+        /**
+         * 按照添加时间倒序，只读的
+         */
+        final List<Image> images;
+        /**
+         * 最大的修改时间(秒)，之后修改的记录需要重新查询
+         */
+        final long maxDateModified;
+
+        Index(List<Image> images, long maxDateModified) {
+            this.images = images;
+            this.maxDateModified = maxDateModified;
+        }
+    }
+
+    /**
+     * 读取上一次的索引，阻塞，在后台线程调用
+     *
+     * @return 没有或者格式不对返回null
+     */
+    static Index read(Context context) {
+        synchronized (LOCK) {
+            if (memory != null) {
+                return memory;
+            }
+            File file = getFile(context);
+            if (file == null || !file.exists()) {
+                return null;
+            }
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("gallery index version changed");
+                }
+                long maxDateModified = in.readLong();
+                int dirCount = in.readInt();
+                String[] dirPaths = new String[dirCount];
+                long[] bucketIds = new long[dirCount];
+                String[] bucketNames = new String[dirCount];
+                for (int i = 0; i < dirCount; i++) {
+                    dirPaths[i] = in.readUTF();
+                    bucketIds[i] = in.readLong();
+                    bucketNames[i] = in.readUTF();
+                }
+                int count = in.readInt();
+                if (count < 0) {
+                    throw new IOException("gallery index broken");
+                }
+                List<Image> images = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    long id = in.readLong();
+                    long dateAdded = in.readLong();
+                    long dateModified = in.readLong();
+                    long size = in.readLong();
+                    int dir = in.readInt();
+                    String fileName = in.readUTF();
+                    String name = in.readUTF();
+                    Image image = new Image(dirPaths[dir] + '/' + fileName, name.isEmpty() ? fileName : name, dateAdded);
+                    image.id = id;
+                    image.dateModified = dateModified;
+                    image.size = size;
+                    image.bucketId = bucketIds[dir];
+                    image.bucketName = bucketNames[dir].isEmpty() ? null : bucketNames[dir];
+                    images.add(image);
+                }
+                memory = new Index(Collections.unmodifiableList(images), maxDateModified);
+                return memory;
+            } catch (IOException | RuntimeException e) {
+                //写到一半被杀掉的不会出现，只有版本变化或者文件损坏
+                file.delete();
+                return null;
+            } finally {
+                PhotoHanderUtils.closeSilently(in);
+            }
+        }
+    }
+
+    /**
+     * 保存索引，阻塞，在后台线程调用
+     *
+     * @param images 按照添加时间倒序，保存之后不能再修改
+     */
+    static void write(Context context, List<Image> images) {
+        long maxDateModified = 0;
+        for (Image image : images) {
+            maxDateModified = Math.max(maxDateModified, image.dateModified);
+        }
+        synchronized (LOCK) {
+            memory = new Index(Collections.unmodifiableList(images), maxDateModified);
+            File file = getFile(context);
+            if (file == null) {
+                return;
+            }
+            File temp = new File(file.getParentFile(), FILE_NAME_TEMP);
+            DataOutputStream out = null;
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(maxDateModified);
+                //目录表，同一个目录的路径只写一次
+                Map<String, Integer> dirIndex = new HashMap<>();
+                List<Image> dirFirst = new ArrayList<>();
+                for (Image image : images) {
+                    String dir = MediaStorePager.parentPath(image.path);
+                    if (!dirIndex.containsKey(dir)) {
+                        dirIndex.put(dir, dirFirst.size());
+                        dirFirst.add(image);
+                    }
+                }
+                out.writeInt(dirFirst.size());
+                for (Image image : dirFirst) {
+                    out.writeUTF(MediaStorePager.parentPath(image.path));
+                    out.writeLong(image.bucketId);
+                    out.writeUTF(image.bucketName != null ? image.bucketName : "");
+                }
+                out.writeInt(images.size());
+                for (Image image : images) {
+                    String dir = MediaStorePager.parentPath(image.path);
+                    String fileName = image.path.substring(Math.min(image.path.length(), dir.length() + 1));
+                    out.writeLong(image.id);
+                    out.writeLong(image.time);
+                    out.writeLong(image.dateModified);
+                    out.writeLong(image.size);
+                    out.writeInt(dirIndex.get(dir));
+                    out.writeUTF(fileName);
+                    out.writeUTF(fileName.equals(image.name) || image.name == null ? "" : image.name);
+                }
+                out.flush();
+                out.close();
+                out = null;
+                if (!temp.renameTo(file)) {
+                    file.delete();
+                    temp.renameTo(file);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                temp.delete();
+            } finally {
+                PhotoHanderUtils.closeSilently(out);
+            }
+        }
+    }
+
+    private static File getFile(Context context) {
+        File dir = PhotoHanderUtils.getCacheDirectory(context.getApplicationContext(), false);
+        if (dir == null || (!dir.exists() && !dir.mkdirs())) {
+            return null;
+        }
+        return new File(dir, FILE_NAME);
+    }
+}
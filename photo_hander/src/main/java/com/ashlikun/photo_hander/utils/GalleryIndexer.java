@@ -0,0 +1,399 @@
+package com.ashlikun.photo_hander.utils;
+
+import android.content.Context;
+
+import com.ashlikun.photo_hander.bean.Folder;
+import com.ashlikun.photo_hander.bean.GallerySnapshot;
+import com.ashlikun.photo_hander.bean.Image;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import io.reactivex.Emitter;
+import io.reactivex.Flowable;
+import io.reactivex.functions.BiConsumer;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/15 14:30
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：在后台线程建立相册索引
+ * 通过 {@link MediaStorePager} 分页读取，图片列表和目录分组都在读取的线程完成
+ * 目录按照 BUCKET_ID 放到哈希表里面分组，不访问文件系统；开始之前先分组查询一次，第一个快照就有全部目录的数量和封面
+ * 每一页生成一个 {@link GallerySnapshot}，主线程只拿快照设置到Adapter，不做任何遍历和文件操作
+ * 有上次保存的索引 {@link GalleryIndexStore} 就先把它作为第一个快照马上显示，再和系统相册对比：
+ * 查询id和路径找出删除的，按照修改时间查询修改过的，不在索引里面的和路径变了的(重命名、移动不一定改修改时间)按照id查询，
+ * 有变化再生成一个替换的快照
+ * 读取完或者对比完之后保存索引，下次打开使用
+ * {@link GalleryReconciler} 发现不存在的路径放到 deadPaths 里面，之后的快照和保存的索引都去掉，
+ * 已经读取完的用 {@link #prune} 重新生成快照
+ * 读取中的快照共享已经读取的部分，不复制；读取完或者整个替换的快照才去掉不存在的路径，复制一份
+ */
+public class GalleryIndexer {
+    private final MediaStorePager pager;
+    private final AppendList<Image> images = new AppendList<>();
+    /**
+     * BUCKET_ID -> 目录，列表保持第一次出现的顺序
+     */
+    private final Map<Long, FolderBuilder> folderMap = new HashMap<>();
+    private final List<FolderBuilder> folders = new ArrayList<>();
+    private final Context context;
+    /**
+     * 已经确认不存在的路径，多个线程访问
+     */
+    private final Set<String> deadPaths;
+    /**
+     * 上次保存的索引，已经先显示了，还需要和系统相册对比
+     */
+    private GalleryIndexStore.Index cached;
+    private boolean started;
+    private boolean done;
+
+    /**
+     * @param deadPaths 不存在的路径，线程安全的集合，调用方之后还可以继续添加
+     */
+    public GalleryIndexer(Context context, int firstPageSize, int pageSize, Set<String> deadPaths) {
+        this.context = context.getApplicationContext();
+        this.deadPaths = deadPaths;
+        pager = new MediaStorePager(context, firstPageSize, pageSize);
+    }
+
+    /**
+     * 在订阅的线程建立索引，每一页一个快照，最后一个快照 {@link GallerySnapshot#complete} 为true
+     *
+     * @param firstPageSize 第一页的数量，一般为一屏
+     * @param pageSize      之后每页的数量
+     * @param deadPaths     不存在的路径，线程安全的集合，加载过程中添加的之后的快照也会去掉
+     */
+    public static Flowable<GallerySnapshot> index(final Context context, final int firstPageSize, final int pageSize,
+                                                  final Set<String> deadPaths) {
+        return Flowable.generate(new Callable<GalleryIndexer>() {
+            @Override
+            public GalleryIndexer call() throws Exception {
+                return new GalleryIndexer(context, firstPageSize, pageSize, deadPaths);
+            }
+        }, new BiConsumer<GalleryIndexer, Emitter<GallerySnapshot>>() {
+            @Override
+            public void accept(GalleryIndexer indexer, Emitter<GallerySnapshot> emitter) throws Exception {
+                GallerySnapshot snapshot = indexer.next();
+                if (snapshot == null) {
+                    emitter.onComplete();
+                } else {
+                    emitter.onNext(snapshot);
+                }
+            }
+        });
+    }
+
+    /**
+     * 从读取完的快照里面去掉不存在的路径，重新分组，保存索引，下次打开不会再出现
+     * 在订阅的线程执行，只发出一个 {@link GallerySnapshot#reset} 的快照
+     */
+    public static Flowable<GallerySnapshot> prune(final Context context, final GallerySnapshot snapshot,
+                                                  final Set<String> deadPaths) {
+        return Flowable.fromCallable(new Callable<GallerySnapshot>() {
+            @Override
+            public GallerySnapshot call() throws Exception {
+                GalleryIndexer indexer = new GalleryIndexer(context, 1, 1, deadPaths);
+                for (Image image : snapshot.images) {
+                    indexer.add(image);
+                }
+                indexer.started = true;
+                indexer.done = true;
+                GalleryIndexStore.write(context, indexer.liveImages());
+                return indexer.snapshot(0, true);
+            }
+        });
+    }
+
+    /**
+     * 读取下一页并生成快照，阻塞，在后台线程调用
+     *
+     * @return 已经生成过完整的快照返回null
+     */
+    public GallerySnapshot next() {
+        if (done) {
+            return null;
+        }
+        if (!started) {
+            started = true;
+            cached = GalleryIndexStore.read(context);
+            if (cached != null && !cached.images.isEmpty()) {
+                for (Image image : cached.images) {
+                    add(image);
+                }
+                return snapshot(images.size(), false);
+            }
+            cached = null;
+            List<Folder> buckets = MediaStorePager.queryBuckets(context);
+            if (buckets != null) {
+                for (Folder bucket : buckets) {
+                    FolderBuilder folder = new FolderBuilder(bucket.bucketId, bucket.name, bucket.path, bucket.cover);
+                    folder.count = bucket.count;
+                    folderMap.put(bucket.bucketId, folder);
+                    folders.add(folder);
+                }
+            }
+        }
+        if (cached != null) {
+            done = true;
+            List<Image> reconciled = reconcile(cached);
+            if (reconciled == null) {
+                return snapshot(0, false);
+            }
+            images.clear();
+            folderMap.clear();
+            folders.clear();
+            for (Image image : reconciled) {
+                add(image);
+            }
+            GalleryIndexStore.write(context, liveImages());
+            return snapshot(images.size(), true);
+        }
+        List<Image> page = pager.nextPage();
+        int newCount = 0;
+        if (page != null) {
+            for (Image image : page) {
+                add(image);
+            }
+            newCount = page.size();
+        }
+        done = !pager.hasMore();
+        if (done) {
+            GalleryIndexStore.write(context, liveImages());
+        }
+        return snapshot(newCount, false);
+    }
+
+    /**
+     * 上次保存的索引和系统相册对比
+     *
+     * @return 没有变化返回null，否则返回按照添加时间倒序的全部图片
+     */
+    private List<Image> reconcile(GalleryIndexStore.Index index) {
+        Map<Long, String> paths = MediaStorePager.queryIdPaths(context);
+        List<Image> modified = paths == null ? null
+                : MediaStorePager.queryModifiedSince(context, index.maxDateModified);
+        if (modified == null) {
+            return null;
+        }
+        Map<Long, Image> byId = new HashMap<>(index.images.size() * 4 / 3 + 1);
+        boolean changed = false;
+        for (Image image : index.images) {
+            String path = paths.get(image.id);
+            if (path == null) {
+                //已经删除
+                changed = true;
+            } else if (path.equals(image.path)) {
+                byId.put(image.id, image);
+            } else {
+                //路径变了的不放进去，下面按照id重新查询
+                changed = true;
+            }
+        }
+        for (Image image : modified) {
+            Image old = byId.put(image.id, image);
+            if (old == null || old.dateModified != image.dateModified || old.size != image.size
+                    || !old.path.equals(image.path)) {
+                changed = true;
+            }
+        }
+        //新增的但是修改时间更早(例如复制进来保留了原来的修改时间)，或者重命名、移动之后修改时间没变
+        List<Long> missing = new ArrayList<>();
+        for (Long id : paths.keySet()) {
+            if (!byId.containsKey(id)) {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            List<Image> found = MediaStorePager.queryByIds(context, missing);
+            if (found != null && !found.isEmpty()) {
+                for (Image image : found) {
+                    byId.put(image.id, image);
+                }
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return null;
+        }
+        List<Image> result = new ArrayList<>(byId.values());
+        Collections.sort(result, new Comparator<Image>() {
+            @Override
+            public int compare(Image o1, Image o2) {
+                //和分页读取的排序一致 DATE_ADDED DESC, _ID DESC
+                if (o1.time != o2.time) {
+                    return o1.time > o2.time ? -1 : 1;
+                }
+                return o1.id > o2.id ? -1 : (o1.id == o2.id ? 0 : 1);
+            }
+        });
+        return result;
+    }
+
+    private void add(Image image) {
+        images.add(image);
+        FolderBuilder folder = folderMap.get(image.bucketId);
+        if (folder == null) {
+            //分组查询之后新增的目录，或者不支持分组查询
+            folder = new FolderBuilder(image.bucketId, image.bucketName,
+                    MediaStorePager.parentPath(image.path), image);
+            folderMap.put(image.bucketId, folder);
+            folders.add(folder);
+        }
+        folder.images.add(image);
+    }
+
+    /**
+     * 去掉不存在的路径，复制一份
+     */
+    private List<Image> liveImages() {
+        return filter(images.snapshot());
+    }
+
+    private List<Image> filter(List<Image> list) {
+        List<Image> live = new ArrayList<>(list.size());
+        for (Image image : list) {
+            if (deadPaths.isEmpty() || !deadPaths.contains(image.path)) {
+                live.add(image);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * 生成只读的快照，之后继续读取不影响已经发出的快照
+     * 读取中的快照直接使用已经读取部分的视图，每一页只和目录数量有关；不存在的路径由Adapter去掉
+     * 读取完或者整个替换的快照才去掉不存在的路径，复制一份，新增的数量也只算存在的；
+     * 读取中发现了不存在的路径，已经发出的快照里面还有，读取完的快照整个替换一次
+     */
+    private GallerySnapshot snapshot(int newCount, boolean reset) {
+        boolean full = done || reset;
+        List<Image> all = images.snapshot();
+        List<Image> live = all;
+        if (full) {
+            live = filter(all);
+            if (live.size() != all.size()) {
+                newCount = filter(all.subList(all.size() - newCount, all.size())).size();
+                reset = true;
+            }
+            live = Collections.unmodifiableList(live);
+        }
+        List<Folder> folderSnapshot = new ArrayList<>(folders.size());
+        Map<Long, Folder> folderIndex = new HashMap<>();
+        for (FolderBuilder builder : folders) {
+            List<Image> folderImages = full ? Collections.unmodifiableList(filter(builder.images.snapshot()))
+                    : builder.images.snapshot();
+            if (done && folderImages.isEmpty()) {
+                //分组查询有，但是读取的时候已经没有了
+                continue;
+            }
+            Folder folder = new Folder();
+            folder.bucketId = builder.bucketId;
+            folder.name = builder.name;
+            folder.path = builder.path;
+            folder.cover = folderImages.isEmpty() ? builder.cover : folderImages.get(0);
+            folder.images = folderImages;
+            //读取完之后以实际读取的数量为准
+            folder.count = done ? folderImages.size() : Math.max(builder.count, folderImages.size());
+            folderSnapshot.add(folder);
+            folderIndex.put(folder.bucketId, folder);
+        }
+        return new GallerySnapshot(live, Collections.unmodifiableList(folderSnapshot),
+                Collections.unmodifiableMap(folderIndex), newCount, done, reset);
+    }
+
+    /**
+     * 建立索引过程中的目录，只在读取的线程使用
+     */
+    private static class FolderBuilder {
+        final long bucketId;
+        final String name;
+        final String path;
+        final Image cover;
+        final AppendList<Image> images = new AppendList<>();
+        /**
+         * 分组查询得到的数量
+         */
+        int count;
+
+        FolderBuilder(long bucketId, String name, String path, Image cover) {
+            this.bucketId = bucketId;
+            this.name = name != null ? name : path.substring(path.lastIndexOf('/') + 1);
+            this.path = path;
+            this.cover = cover;
+        }
+    }
+
+    /**
+     * 只在后面追加的列表，只在读取的线程修改
+     * 数组满了换一个新的，已经写入的位置不再修改，{@link #snapshot} 返回的视图不受之后追加的影响
+     */
+    private static class AppendList<E> {
+        private Object[] items = new Object[64];
+        private int size;
+
+        void add(E item) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = item;
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * 换一个新的数组，已经发出的视图不变
+         */
+        void clear() {
+            items = new Object[64];
+            size = 0;
+        }
+
+        /**
+         * 当前长度的只读视图，不复制
+         */
+        List<E> snapshot() {
+            return new Prefix<>(items, size);
+        }
+    }
+
+    /**
+     * 数组前面一段的只读视图
+     */
+    private static final class Prefix<E> extends AbstractList<E> implements RandomAccess {
+        private final Object[] items;
+        private final int size;
+
+        Prefix(Object[] items, int size) {
+            this.items = items;
+            this.size = size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return (E) items[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
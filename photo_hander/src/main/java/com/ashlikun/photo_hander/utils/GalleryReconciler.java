@@ -0,0 +1,136 @@
+package com.ashlikun.photo_hander.utils;
+
+import com.ashlikun.photo_hander.bean.Image;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Flowable;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
+import io.reactivex.processors.FlowableProcessor;
+import io.reactivex.processors.PublishProcessor;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/15 17:10
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：延迟检查相册里面的文件是否还存在
+ * 加载相册的时候不检查文件，加载速度只和查询有关
+ * 缩略图加载失败的交给 {@link #check}，攒一批在后台检查；加载完之后 {@link #sweep} 在后台分批检查全部
+ * 不存在的路径分批回调到主线程，由调用方从列表里面去掉
+ */
+public class GalleryReconciler {
+    /**
+     * 一批检查的数量
+     */
+    private static final int BATCH_SIZE = 200;
+    /**
+     * 可疑的路径最多等待多久凑成一批
+     */
+    private static final long BATCH_WINDOW_MS = 300;
+
+    private final FlowableProcessor<String> suspects = PublishProcessor.<String>create().toSerialized();
+    private final CompositeDisposable disposables = new CompositeDisposable();
+    private final Consumer<Set<String>> onDead;
+    private Disposable sweepDisposable;
+
+    /**
+     * @param onDead 在主线程回调已经不存在的路径
+     */
+    public GalleryReconciler(Consumer<Set<String>> onDead) {
+        this.onDead = onDead;
+        disposables.add(reconcile(suspects.onBackpressureBuffer()
+                .buffer(BATCH_WINDOW_MS, TimeUnit.MILLISECONDS, BATCH_SIZE)));
+    }
+
+    /**
+     * 检查一个可疑的路径，例如缩略图加载失败，可以在任何线程调用
+     */
+    public void check(String path) {
+        if (path != null && !PhotoHanderUtils.isHttpImg(path)) {
+            suspects.onNext(path);
+        }
+    }
+
+    /**
+     * 在后台分批检查全部图片，相册加载完之后调用，再次调用会取消上一次
+     */
+    public void sweep(List<Image> images) {
+        if (sweepDisposable != null) {
+            disposables.remove(sweepDisposable);
+        }
+        sweepDisposable = reconcile(Flowable.fromIterable(images)
+                .subscribeOn(Schedulers.io())
+                .filter(new Predicate<Image>() {
+                    @Override
+                    public boolean test(Image image) throws Exception {
+                        return !image.isHttp();
+                    }
+                })
+                .map(new Function<Image, String>() {
+                    @Override
+                    public String apply(Image image) throws Exception {
+                        return image.path;
+                    }
+                })
+                .buffer(BATCH_SIZE));
+        disposables.add(sweepDisposable);
+    }
+
+    /**
+     * 当前是否存在，一次stat，只在用户选择的时候在主线程调用
+     */
+    public static boolean exists(Image image) {
+        return image.isHttp() || new File(image.path).exists();
+    }
+
+    public void dispose() {
+        disposables.dispose();
+    }
+
+    private Disposable reconcile(Flowable<List<String>> batches) {
+        return batches
+                .filter(new Predicate<List<String>>() {
+                    @Override
+                    public boolean test(List<String> batch) throws Exception {
+                        return !batch.isEmpty();
+                    }
+                })
+                .observeOn(Schedulers.io())
+                .map(new Function<List<String>, Set<String>>() {
+                    @Override
+                    public Set<String> apply(List<String> batch) throws Exception {
+                        Set<String> dead = new HashSet<>();
+                        for (String path : batch) {
+                            if (!new File(path).exists()) {
+                                dead.add(path);
+                            }
+                        }
+                        return dead;
+                    }
+                })
+                .filter(new Predicate<Set<String>>() {
+                    @Override
+                    public boolean test(Set<String> dead) throws Exception {
+                        return !dead.isEmpty();
+                    }
+                })
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(onDead, new Consumer<Throwable>() {
+                    @Override
+                    public void accept(Throwable throwable) throws Exception {
+                        throwable.printStackTrace();
+                    }
+                });
+    }
+}
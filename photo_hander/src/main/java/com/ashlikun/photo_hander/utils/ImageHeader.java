@@ -0,0 +1,375 @@
+package com.ashlikun.photo_hander.utils;
+
+import android.content.ContentResolver;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/10 10:20
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：图片头信息
+ * 一次读取文件开头就拿到宽高、旋转角度和类型，不需要 BitmapFactory 解码边界和 ExifInterface 再各打开一次文件
+ * 支持 JPEG、PNG、WebP、GIF，其他格式退回到 BitmapFactory 解码边界
+ */
+public class ImageHeader {
+    public static final String MIME_JPEG = "image/jpeg";
+    public static final String MIME_PNG = "image/png";
+    public static final String MIME_WEBP = "image/webp";
+    public static final String MIME_GIF = "image/gif";
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    /**
+     * EXIF段最多读取的字节数，方向标签在IFD0，一般在前几百字节
+     */
+    private static final int MAX_EXIF_BYTES = 16 * 1024;
+    private static final int TAG_ORIENTATION = 0x0112;
+
+    /**
+     * 宽，没有旋转
+     */
+    public int width;
+    /**
+     * 高，没有旋转
+     */
+    public int height;
+    /**
+     * EXIF 里的旋转角度 0，90，180，270
+     */
+    public int orientation;
+    /**
+     * 图片类型，未知为null
+     */
+    public String mimeType;
+    /**
+     * 是否带有EXIF、XMP等元数据(可能有GPS、设备序列号)
+     * 解析不了的格式不知道有没有，按照有处理
+     */
+    public boolean hasMetadata;
+
+    /**
+     * 是否读取到了宽高
+     */
+    public boolean isValid() {
+        return width > 0 && height > 0;
+    }
+
+    /**
+     * 读取本地图片的头信息
+     */
+    public static ImageHeader read(String path) {
+        InputStream is = null;
+        try {
+            is = new BufferedInputStream(new FileInputStream(path), BUFFER_SIZE);
+            ImageHeader header = read(is);
+            if (header.isValid()) {
+                return header;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            PhotoHanderUtils.closeSilently(is);
+        }
+        return readByDecoder(path);
+    }
+
+    /**
+     * 读取Uri对应图片的头信息
+     */
+    public static ImageHeader read(ContentResolver resolver, Uri uri) throws IOException {
+        InputStream is = null;
+        try {
+            is = new BufferedInputStream(resolver.openInputStream(uri), BUFFER_SIZE);
+            ImageHeader header = read(is);
+            if (header.isValid()) {
+                return header;
+            }
+        } finally {
+            PhotoHanderUtils.closeSilently(is);
+        }
+        try {
+            is = resolver.openInputStream(uri);
+            ImageHeader header = new ImageHeader();
+            decodeBounds(header, is);
+            return header;
+        } finally {
+            PhotoHanderUtils.closeSilently(is);
+        }
+    }
+
+    /**
+     * 从流的开头解析，不会关闭流
+     * 不认识的格式返回的结果 {@link #isValid()} 为false
+     */
+    public static ImageHeader read(InputStream is) throws IOException {
+        ImageHeader header = new ImageHeader();
+        int b0 = is.read();
+        int b1 = is.read();
+        if (b0 == 0xFF && b1 == 0xD8) {
+            header.mimeType = MIME_JPEG;
+            readJpeg(header, is);
+        } else if (b0 == 0x89 && b1 == 'P') {
+            header.mimeType = MIME_PNG;
+            readPng(header, is);
+        } else if (b0 == 'R' && b1 == 'I') {
+            readWebp(header, is);
+        } else if (b0 == 'G' && b1 == 'I') {
+            header.mimeType = MIME_GIF;
+            readGif(header, is);
+        }
+        return header;
+    }
+
+    /**
+     * 解析不了的时候用 BitmapFactory 解码边界
+     */
+    public static ImageHeader readByDecoder(String path) {
+        ImageHeader header = new ImageHeader();
+        InputStream is = null;
+        try {
+            is = new FileInputStream(path);
+            decodeBounds(header, is);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            PhotoHanderUtils.closeSilently(is);
+        }
+        return header;
+    }
+
+    private static void decodeBounds(ImageHeader header, InputStream is) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeStream(is, null, options);
+        header.width = options.outWidth;
+        header.height = options.outHeight;
+        header.mimeType = options.outMimeType;
+        header.hasMetadata = true;
+    }
+
+    /**
+     * 依次读取JPEG的段，APP1里取方向，SOF里取宽高
+     */
+    private static void readJpeg(ImageHeader header, InputStream is) throws IOException {
+        while (true) {
+            if (is.read() != 0xFF) {
+                return;
+            }
+            int marker = is.read();
+            while (marker == 0xFF) {
+                marker = is.read();
+            }
+            if (marker == -1 || marker == 0xD9 || marker == 0xDA) {
+                //文件结束或者开始图像数据，没有找到SOF
+                return;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                //没有长度的标记
+                continue;
+            }
+            int length = readUnsignedShort(is, false) - 2;
+            if (length < 0) {
+                return;
+            }
+            if (marker == 0xE1) {
+                //APP1是EXIF或者XMP
+                header.hasMetadata = true;
+            }
+            if (marker == 0xE1 && header.orientation == 0) {
+                int count = Math.min(length, MAX_EXIF_BYTES);
+                byte[] exif = new byte[count];
+                readFully(is, exif, count);
+                header.orientation = parseExifOrientation(exif);
+                skipFully(is, length - count);
+            } else if (isSofMarker(marker)) {
+                //精度1字节，高2字节，宽2字节
+                skipFully(is, 1);
+                header.height = readUnsignedShort(is, false);
+                header.width = readUnsignedShort(is, false);
+                return;
+            } else {
+                skipFully(is, length);
+            }
+        }
+    }
+
+    private static boolean isSofMarker(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF
+                && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    /**
+     * 解析APP1段里的EXIF方向
+     */
+    private static int parseExifOrientation(byte[] data) {
+        //"Exif\0\0" + TIFF头
+        if (data.length < 14 || data[0] != 'E' || data[1] != 'x' || data[2] != 'i' || data[3] != 'f') {
+            return 0;
+        }
+        int tiff = 6;
+        boolean little;
+        if (data[tiff] == 'I' && data[tiff + 1] == 'I') {
+            little = true;
+        } else if (data[tiff] == 'M' && data[tiff + 1] == 'M') {
+            little = false;
+        } else {
+            return 0;
+        }
+        int ifd = tiff + (int) getInt(data, tiff + 4, little);
+        if (ifd < tiff || ifd + 2 > data.length) {
+            return 0;
+        }
+        int count = getShort(data, ifd, little);
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > data.length) {
+                return 0;
+            }
+            if (getShort(data, entry, little) == TAG_ORIENTATION) {
+                switch (getShort(data, entry + 8, little)) {
+                    case 3:
+                        return 180;
+                    case 6:
+                        return 90;
+                    case 8:
+                        return 270;
+                    default:
+                        return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 签名8字节，IHDR 长度4字节，类型4字节，然后是宽高
+     */
+    private static void readPng(ImageHeader header, InputStream is) throws IOException {
+        byte[] data = new byte[22];
+        readFully(is, data, data.length);
+        if (data[10] != 'I' || data[11] != 'H' || data[12] != 'D' || data[13] != 'R') {
+            return;
+        }
+        header.width = (int) getInt(data, 14, false);
+        header.height = (int) getInt(data, 18, false);
+        //IHDR还有5字节(位深、颜色类型、压缩、过滤、隔行)和4字节CRC，之后依次读取图像数据之前的块，元数据块一般在图像数据之前
+        byte[] chunk = new byte[8];
+        try {
+            skipFully(is, 9);
+            while (true) {
+                readFully(is, chunk, chunk.length);
+                String type = new String(chunk, 4, 4, "US-ASCII");
+                if ("IDAT".equals(type) || "IEND".equals(type)) {
+                    return;
+                }
+                if ("eXIf".equals(type) || "iTXt".equals(type)) {
+                    header.hasMetadata = true;
+                    return;
+                }
+                skipFully(is, getInt(chunk, 0, false) + 4);
+            }
+        } catch (EOFException e) {
+            //没有读到图像数据，不知道有没有元数据
+            header.hasMetadata = true;
+        }
+    }
+
+    /**
+     * RIFF头之后第一个块：VP8(有损)，VP8L(无损)，VP8X(扩展)
+     */
+    private static void readWebp(ImageHeader header, InputStream is) throws IOException {
+        byte[] data = new byte[28];
+        readFully(is, data, data.length);
+        if (data[0] != 'F' || data[1] != 'F' || data[6] != 'W' || data[7] != 'E' || data[8] != 'B' || data[9] != 'P') {
+            return;
+        }
+        header.mimeType = MIME_WEBP;
+        if (data[10] != 'V' || data[11] != 'P' || data[12] != '8') {
+            return;
+        }
+        byte type = data[13];
+        if (type == ' ') {
+            header.width = getShort(data, 24, true) & 0x3FFF;
+            header.height = getShort(data, 26, true) & 0x3FFF;
+        } else if (type == 'L') {
+            long bits = getInt(data, 19, true);
+            header.width = (int) (bits & 0x3FFF) + 1;
+            header.height = (int) ((bits >> 14) & 0x3FFF) + 1;
+        } else if (type == 'X') {
+            header.width = getInt24(data, 22) + 1;
+            header.height = getInt24(data, 25) + 1;
+            //VP8X的标志位在文件第20字节(前面已经读了2字节)：EXIF 0x08，XMP 0x04
+            header.hasMetadata = (data[18] & 0x0C) != 0;
+        }
+    }
+
+    private static void readGif(ImageHeader header, InputStream is) throws IOException {
+        byte[] data = new byte[8];
+        readFully(is, data, data.length);
+        header.width = getShort(data, 4, true);
+        header.height = getShort(data, 6, true);
+    }
+
+    private static int getShort(byte[] data, int offset, boolean little) {
+        if (little) {
+            return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+        }
+        return (data[offset] & 0xFF) << 8 | (data[offset + 1] & 0xFF);
+    }
+
+    private static long getInt(byte[] data, int offset, boolean little) {
+        long value;
+        if (little) {
+            value = (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8
+                    | (data[offset + 2] & 0xFF) << 16 | (long) (data[offset + 3] & 0xFF) << 24;
+        } else {
+            value = (long) (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16
+                    | (data[offset + 2] & 0xFF) << 8 | (data[offset + 3] & 0xFF);
+        }
+        return value;
+    }
+
+    private static int getInt24(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8 | (data[offset + 2] & 0xFF) << 16;
+    }
+
+    private static int readUnsignedShort(InputStream is, boolean little) throws IOException {
+        int b0 = is.read();
+        int b1 = is.read();
+        if ((b0 | b1) < 0) {
+            throw new EOFException();
+        }
+        return little ? (b1 << 8 | b0) : (b0 << 8 | b1);
+    }
+
+    private static void readFully(InputStream is, byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = is.read(buffer, offset, length - offset);
+            if (read == -1) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+    }
+
+    private static void skipFully(InputStream is, long count) throws IOException {
+        while (count > 0) {
+            long skipped = is.skip(count);
+            if (skipped <= 0) {
+                if (is.read() == -1) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+}
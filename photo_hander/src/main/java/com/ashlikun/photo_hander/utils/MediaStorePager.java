@@ -0,0 +1,364 @@
+package com.ashlikun.photo_hander.utils;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Bundle;
+import android.provider.MediaStore;
+import android.text.TextUtils;
+
+import com.ashlikun.photo_hander.bean.Folder;
+import com.ashlikun.photo_hander.bean.Image;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import io.reactivex.Emitter;
+import io.reactivex.Flowable;
+import io.reactivex.functions.BiConsumer;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/15 9:40
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：分页读取系统相册
+ * 按照 DATE_ADDED, _ID 倒序，每页记住最后一条，下一页从它后面开始查询(keyset)
+ * 不用 OFFSET，翻到后面的页也不会越来越慢，第一页的耗时和相册多大无关
+ * 查询到下一页之前数据库变化(新增删除)不会重复或者漏掉已经读过的位置
+ * 不检查文件是否存在，交给 {@link GalleryReconciler} 延迟检查
+ */
+public class MediaStorePager {
+    /**
+     * 第一页之后每页的数量
+     */
+    public static final int DEFAULT_PAGE_SIZE = 500;
+
+    private static final String[] IMAGE_PROJECTION = {
+            MediaStore.Images.Media.DATA,
+            MediaStore.Images.Media.DISPLAY_NAME,
+            MediaStore.Images.Media.DATE_ADDED,
+            MediaStore.Images.Media._ID,
+            MediaStore.Images.Media.BUCKET_ID,
+            MediaStore.Images.Media.BUCKET_DISPLAY_NAME,
+            MediaStore.Images.Media.SIZE,
+            MediaStore.Images.Media.DATE_MODIFIED};
+    private static final String[] ID_PROJECTION = {
+            MediaStore.Images.Media._ID,
+            MediaStore.Images.Media.DATA,
+            MediaStore.Images.Media.DISPLAY_NAME};
+    /**
+     * 按照id查询的时候一次最多的id数量，SQLite 一条语句的参数有上限
+     */
+    private static final int ID_BATCH = 500;
+    /**
+     * 分组查询，SQLite 的 MAX 聚合会让其他列取最大那一行的值，也就是最新的一张作为封面
+     */
+    private static final String[] BUCKET_PROJECTION = {
+            MediaStore.Images.Media.BUCKET_ID,
+            MediaStore.Images.Media.BUCKET_DISPLAY_NAME,
+            MediaStore.Images.Media.DATA,
+            MediaStore.Images.Media.DISPLAY_NAME,
+            "MAX(" + MediaStore.Images.Media.DATE_ADDED + ") AS " + MediaStore.Images.Media.DATE_ADDED,
+            "COUNT(*) AS " + MediaStore.Images.Media._COUNT};
+    /**
+     * 10.0 开始不允许在条件里面拼接 GROUP BY
+     */
+    private static final int GROUP_BY_MAX_SDK = 28;
+    /**
+     * 11.0(API 30) 开始 MediaProvider 才处理 QUERY_ARG_LIMIT，8.0-10.0 会忽略，返回剩下的全部记录
+     */
+    private static final int QUERY_ARG_LIMIT_MIN_SDK = 30;
+    private static final String SELECTION = MediaStore.Images.Media.SIZE + ">0 AND ("
+            + MediaStore.Images.Media.MIME_TYPE + "=? OR " + MediaStore.Images.Media.MIME_TYPE + "=?)";
+    private static final String[] SELECTION_ARGS = {"image/jpeg", "image/png"};
+    private static final String KEYSET_SELECTION = " AND (" + MediaStore.Images.Media.DATE_ADDED + "<? OR ("
+            + MediaStore.Images.Media.DATE_ADDED + "=? AND " + MediaStore.Images.Media._ID + "<?))";
+    private static final String SORT_ORDER = MediaStore.Images.Media.DATE_ADDED + " DESC, "
+            + MediaStore.Images.Media._ID + " DESC";
+
+    private final ContentResolver resolver;
+    private final int firstPageSize;
+    private final int pageSize;
+    /**
+     * 上一页最后一条的位置，-1为还没有读取
+     */
+    private long lastDateAdded = -1;
+    private long lastId = -1;
+    private boolean finished;
+
+    /**
+     * @param firstPageSize 第一页的数量，一般为一屏
+     * @param pageSize      之后每页的数量
+     */
+    public MediaStorePager(Context context, int firstPageSize, int pageSize) {
+        this.resolver = context.getApplicationContext().getContentResolver();
+        this.firstPageSize = Math.max(1, firstPageSize);
+        this.pageSize = Math.max(1, pageSize);
+    }
+
+    /**
+     * 在后台线程按页读取，每页一次回调，背压由下游的请求控制
+     *
+     * @param firstPageSize 第一页的数量，一般为一屏
+     * @param pageSize      之后每页的数量
+     */
+    public static Flowable<List<Image>> pages(final Context context, final int firstPageSize, final int pageSize) {
+        return Flowable.generate(new Callable<MediaStorePager>() {
+            @Override
+            public MediaStorePager call() throws Exception {
+                return new MediaStorePager(context, firstPageSize, pageSize);
+            }
+        }, new BiConsumer<MediaStorePager, Emitter<List<Image>>>() {
+            @Override
+            public void accept(MediaStorePager pager, Emitter<List<Image>> emitter) throws Exception {
+                List<Image> page = pager.nextPage();
+                if (page == null) {
+                    emitter.onComplete();
+                } else {
+                    emitter.onNext(page);
+                }
+            }
+        });
+    }
+
+    public boolean hasMore() {
+        return !finished;
+    }
+
+    /**
+     * 读取下一页，阻塞，在后台线程调用
+     * 没有文件名的不返回，所以一页可能比页大小少
+     *
+     * @return 已经读完返回null
+     */
+    public List<Image> nextPage() {
+        if (finished) {
+            return null;
+        }
+        int limit = lastId < 0 ? firstPageSize : pageSize;
+        Cursor cursor = query(limit);
+        if (cursor == null) {
+            finished = true;
+            return null;
+        }
+        //不调用 getCount()，没有 LIMIT 的时候会统计剩下的全部记录
+        List<Image> images = new ArrayList<>(limit);
+        int read = 0;
+        try {
+            int[] columns = columnIndexes(cursor);
+            //部分系统不支持 LIMIT 的时候会返回全部，最多读取一页
+            while (read < limit && cursor.moveToNext()) {
+                read++;
+                lastDateAdded = cursor.getLong(columns[2]);
+                lastId = cursor.getLong(columns[3]);
+                Image image = readImage(cursor, columns);
+                if (image != null) {
+                    images.add(image);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        if (read < limit) {
+            finished = true;
+            if (read == 0) {
+                return null;
+            }
+        }
+        return images;
+    }
+
+    /**
+     * 一次分组查询得到所有目录的数量和封面，不用等全部图片读取完
+     * 只统计数据库的记录，文件是否存在由 {@link GalleryReconciler} 延迟检查
+     *
+     * @return 按照最新图片的时间倒序，系统不支持分组查询返回null
+     */
+    public static List<Folder> queryBuckets(Context context) {
+        if (Build.VERSION.SDK_INT > GROUP_BY_MAX_SDK) {
+            return null;
+        }
+        Cursor cursor;
+        try {
+            cursor = context.getApplicationContext().getContentResolver().query(
+                    MediaStore.Images.Media.EXTERNAL_CONTENT_URI, BUCKET_PROJECTION,
+                    SELECTION + ") GROUP BY (" + MediaStore.Images.Media.BUCKET_ID,
+                    SELECTION_ARGS, "MAX(" + MediaStore.Images.Media.DATE_ADDED + ") DESC");
+        } catch (RuntimeException e) {
+            //部分系统改过相册数据库，不支持就全部读取之后再统计
+            return null;
+        }
+        if (cursor == null) {
+            return null;
+        }
+        List<Folder> folders = new ArrayList<>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                String path = cursor.getString(2);
+                if (TextUtils.isEmpty(path)) {
+                    continue;
+                }
+                Folder folder = new Folder();
+                folder.bucketId = cursor.getLong(0);
+                folder.name = cursor.getString(1);
+                folder.path = parentPath(path);
+                folder.cover = new Image(path, cursor.getString(3), cursor.getLong(4));
+                folder.cover.bucketId = folder.bucketId;
+                folder.cover.bucketName = folder.name;
+                folder.count = cursor.getInt(5);
+                folders.add(folder);
+            }
+        } finally {
+            cursor.close();
+        }
+        return folders;
+    }
+
+    /**
+     * 全部记录的id和路径，只查询三列，用来找出上次保存的索引里面已经删除、重命名或者移动的图片
+     * 和 {@link #nextPage()} 一样去掉没有文件名的
+     *
+     * @return id -> 路径，查询失败返回null
+     */
+    public static Map<Long, String> queryIdPaths(Context context) {
+        Cursor cursor = context.getApplicationContext().getContentResolver().query(
+                MediaStore.Images.Media.EXTERNAL_CONTENT_URI, ID_PROJECTION, SELECTION, SELECTION_ARGS, null);
+        if (cursor == null) {
+            return null;
+        }
+        Map<Long, String> paths = new HashMap<>(cursor.getCount() * 4 / 3 + 1);
+        try {
+            while (cursor.moveToNext()) {
+                String path = cursor.getString(1);
+                if (TextUtils.isEmpty(path) || TextUtils.isEmpty(cursor.getString(2))) {
+                    continue;
+                }
+                paths.put(cursor.getLong(0), path);
+            }
+        } finally {
+            cursor.close();
+        }
+        return paths;
+    }
+
+    /**
+     * 修改时间不早于这个时间的记录，新增的和修改过的
+     * 包括同一秒的，同一秒里面保存索引之后才修改的不会漏掉
+     *
+     * @param dateModified 秒
+     * @return 查询失败返回null
+     */
+    public static List<Image> queryModifiedSince(Context context, long dateModified) {
+        return queryImages(context, SELECTION + " AND " + MediaStore.Images.Media.DATE_MODIFIED + ">=?",
+                new String[]{SELECTION_ARGS[0], SELECTION_ARGS[1], String.valueOf(dateModified)});
+    }
+
+    /**
+     * 按照id查询，分批查询，例如复制进来的图片保留了原来的修改时间
+     *
+     * @return 查询失败返回null
+     */
+    public static List<Image> queryByIds(Context context, List<Long> ids) {
+        List<Image> images = new ArrayList<>(ids.size());
+        for (int start = 0; start < ids.size(); start += ID_BATCH) {
+            List<Long> batch = ids.subList(start, Math.min(ids.size(), start + ID_BATCH));
+            StringBuilder selection = new StringBuilder(SELECTION).append(" AND ")
+                    .append(MediaStore.Images.Media._ID).append(" IN (");
+            String[] args = new String[SELECTION_ARGS.length + batch.size()];
+            args[0] = SELECTION_ARGS[0];
+            args[1] = SELECTION_ARGS[1];
+            for (int i = 0; i < batch.size(); i++) {
+                selection.append(i == 0 ? "?" : ",?");
+                args[SELECTION_ARGS.length + i] = String.valueOf(batch.get(i));
+            }
+            selection.append(')');
+            List<Image> found = queryImages(context, selection.toString(), args);
+            if (found == null) {
+                return null;
+            }
+            images.addAll(found);
+        }
+        return images;
+    }
+
+    private static List<Image> queryImages(Context context, String selection, String[] args) {
+        Cursor cursor = context.getApplicationContext().getContentResolver().query(
+                MediaStore.Images.Media.EXTERNAL_CONTENT_URI, IMAGE_PROJECTION, selection, args, null);
+        if (cursor == null) {
+            return null;
+        }
+        List<Image> images = new ArrayList<>(cursor.getCount());
+        try {
+            int[] columns = columnIndexes(cursor);
+            while (cursor.moveToNext()) {
+                Image image = readImage(cursor, columns);
+                if (image != null) {
+                    images.add(image);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return images;
+    }
+
+    private static int[] columnIndexes(Cursor cursor) {
+        int[] columns = new int[IMAGE_PROJECTION.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = cursor.getColumnIndexOrThrow(IMAGE_PROJECTION[i]);
+        }
+        return columns;
+    }
+
+    /**
+     * 读取当前行，没有文件名的返回null
+     */
+    private static Image readImage(Cursor cursor, int[] columns) {
+        String path = cursor.getString(columns[0]);
+        String name = cursor.getString(columns[1]);
+        if (TextUtils.isEmpty(name) || TextUtils.isEmpty(path)) {
+            return null;
+        }
+        Image image = new Image(path, name, cursor.getLong(columns[2]));
+        image.id = cursor.getLong(columns[3]);
+        image.bucketId = cursor.getLong(columns[4]);
+        image.bucketName = cursor.getString(columns[5]);
+        image.size = cursor.getLong(columns[6]);
+        image.dateModified = cursor.getLong(columns[7]);
+        return image;
+    }
+
+    /**
+     * 图片所在目录，只处理字符串，不访问文件系统
+     */
+    public static String parentPath(String path) {
+        int index = path.lastIndexOf('/');
+        return index > 0 ? path.substring(0, index) : path;
+    }
+
+    private Cursor query(int limit) {
+        String selection = SELECTION;
+        String[] args = SELECTION_ARGS;
+        if (lastId >= 0) {
+            selection += KEYSET_SELECTION;
+            args = new String[]{SELECTION_ARGS[0], SELECTION_ARGS[1],
+                    String.valueOf(lastDateAdded), String.valueOf(lastDateAdded), String.valueOf(lastId)};
+        }
+        if (Build.VERSION.SDK_INT >= QUERY_ARG_LIMIT_MIN_SDK) {
+            //11.0 开始不允许在排序里面写 LIMIT，同时 MediaProvider 才支持 QUERY_ARG_LIMIT
+            Bundle queryArgs = new Bundle();
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+            queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, args);
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, SORT_ORDER);
+            queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, limit);
+            return resolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, IMAGE_PROJECTION, queryArgs, null);
+        }
+        return resolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, IMAGE_PROJECTION,
+                selection, args, SORT_ORDER + " LIMIT " + limit);
+    }
+}
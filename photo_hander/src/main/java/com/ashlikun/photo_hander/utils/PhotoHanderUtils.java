@@ -23,6 +23,7 @@ import android.widget.Toast;
 import com.ashlikun.photo_hander.PhotoHander;
 import com.ashlikun.photo_hander.R;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
@@ -98,6 +99,19 @@ public class PhotoHanderUtils {
         return format.format(new Date(timeMillis));
     }
 
+    /**
+     * 关闭流，忽略异常
+     */
+    public static void closeSilently(Closeable c) {
+        if (c == null) {
+            return;
+        }
+        try {
+            c.close();
+        } catch (Throwable t) {
+        }
+    }
+
     public static File createTmpFile(Context context) throws IOException {
         return createTmpFile(context, "Camera");
     }
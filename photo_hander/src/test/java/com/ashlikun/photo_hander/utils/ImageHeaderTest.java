@@ -0,0 +1,122 @@
+package com.ashlikun.photo_hander.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 作者　　: 李坤
+ * 创建时间: 2019/4/16 10:20
+ * 邮箱　　：496546144@qq.com
+ * <p>
+ * 功能介绍：文件头解析，只用 {@link ImageHeader#read(java.io.InputStream)}，不需要设备
+ * 元数据判断错了会把带GPS的原图直接返回，或者让所有PNG都重新编码
+ */
+public class ImageHeaderTest {
+
+    @Test
+    public void plainPngHasNoMetadata() throws IOException {
+        ImageHeader header = read(png(false));
+        assertEquals(ImageHeader.MIME_PNG, header.mimeType);
+        assertEquals(300, header.width);
+        assertEquals(200, header.height);
+        assertFalse(header.hasMetadata);
+    }
+
+    @Test
+    public void pngWithExifChunkHasMetadata() throws IOException {
+        ImageHeader header = read(png(true));
+        assertEquals(300, header.width);
+        assertTrue(header.hasMetadata);
+    }
+
+    @Test
+    public void webpVp8xWithoutFlagsHasNoMetadata() throws IOException {
+        ImageHeader header = read(webpVp8x(0));
+        assertEquals(ImageHeader.MIME_WEBP, header.mimeType);
+        assertEquals(640, header.width);
+        assertEquals(480, header.height);
+        assertFalse(header.hasMetadata);
+    }
+
+    @Test
+    public void webpVp8xWithExifFlagHasMetadata() throws IOException {
+        assertTrue(read(webpVp8x(0x08)).hasMetadata);
+    }
+
+    @Test
+    public void webpVp8xWithXmpFlagHasMetadata() throws IOException {
+        assertTrue(read(webpVp8x(0x04)).hasMetadata);
+    }
+
+    private static ImageHeader read(byte[] data) throws IOException {
+        return ImageHeader.read(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * 签名 + IHDR + (eXIf) + IDAT + IEND，CRC不校验，写0
+     */
+    private static byte[] png(boolean exif) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+        ByteArrayOutputStream ihdr = new ByteArrayOutputStream();
+        writeInt(ihdr, 300);
+        writeInt(ihdr, 200);
+        //位深、颜色类型、压缩、过滤、隔行
+        ihdr.write(new byte[]{8, 6, 0, 0, 0});
+        chunk(out, "IHDR", ihdr.toByteArray());
+        if (exif) {
+            chunk(out, "eXIf", new byte[]{'M', 'M', 0, 42, 0, 0, 0, 8});
+        }
+        chunk(out, "IDAT", new byte[]{0x78, 0x01});
+        chunk(out, "IEND", new byte[0]);
+        return out.toByteArray();
+    }
+
+    private static void chunk(ByteArrayOutputStream out, String type, byte[] data) throws IOException {
+        writeInt(out, data.length);
+        out.write(type.getBytes("US-ASCII"));
+        out.write(data);
+        writeInt(out, 0);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * RIFF头 + VP8X块：标志位1字节，保留3字节，宽高各3字节(减1，小端)
+     */
+    private static byte[] webpVp8x(int flags) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("RIFF".getBytes("US-ASCII"));
+        writeIntLe(out, 22);
+        out.write("WEBPVP8X".getBytes("US-ASCII"));
+        writeIntLe(out, 10);
+        out.write(flags);
+        out.write(new byte[3]);
+        writeInt24Le(out, 640 - 1);
+        writeInt24Le(out, 480 - 1);
+        return out.toByteArray();
+    }
+
+    private static void writeIntLe(ByteArrayOutputStream out, int value) {
+        writeInt24Le(out, value);
+        out.write(value >>> 24);
+    }
+
+    private static void writeInt24Le(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+    }
+}